@@ -0,0 +1,123 @@
+package robertapengelly.support.widget;
+
+import  android.content.Context;
+import  android.graphics.drawable.ColorDrawable;
+import  android.support.test.InstrumentationRegistry;
+import  android.support.test.annotation.UiThreadTest;
+import  android.support.test.filters.SdkSuppress;
+import  android.support.test.rule.UiThreadTestRule;
+import  android.support.test.runner.AndroidJUnit4;
+import  android.util.TypedValue;
+import  android.view.View;
+
+import  org.junit.Rule;
+import  org.junit.Test;
+import  org.junit.runner.RunWith;
+
+import  robertapengelly.support.materialtextview.test.R;
+
+import  static org.junit.Assert.assertEquals;
+
+/**
+ * Padding set on views that have a shadow but no room reserved for it must be applied as it is. The
+ * shadow is only emulated before API 21, later devices have nothing to test here.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(maxSdkVersion = 20)
+public class MaterialTextViewPaddingTest {
+
+    @Rule
+    public final UiThreadTestRule mUiThreadTestRule = new UiThreadTestRule();
+    
+    private static void assertPadding(MaterialTextView view, int left, int top, int right, int bottom) {
+    
+        // without compound drawables these are the paddings the view actually lays its text out with
+        assertEquals(left, view.getCompoundPaddingLeft());
+        assertEquals(top, view.getCompoundPaddingTop());
+        assertEquals(right, view.getCompoundPaddingRight());
+        assertEquals(bottom, view.getCompoundPaddingBottom());
+    
+    }
+    
+    private static MaterialTextView createView(boolean outsideBounds, float elevationDp) {
+    
+        final Context context = InstrumentationRegistry.getTargetContext();
+        
+        MaterialTextView view = new MaterialTextView(context);
+        view.setShadowOutsideBounds(outsideBounds);
+        view.setText("Label");
+        
+        view.setBackgroundResource(R.drawable.padding_test_background);
+        
+        view.setElevation(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, elevationDp,
+            context.getResources().getDisplayMetrics()));
+        
+        layout(view);
+        return view;
+    
+    }
+    
+    /** Measures and lays the view out, which records its size without shadow. */
+    private static void layout(View view) {
+    
+        final int spec = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+        
+        view.measure(spec, spec);
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+    
+    }
+    
+    @Test
+    @UiThreadTest
+    public void setPaddingOnFlatView() {
+    
+        MaterialTextView view = createView(false, 0);
+        view.setPadding(1, 2, 3, 4);
+        
+        assertPadding(view, 1, 2, 3, 4);
+    
+    }
+    
+    @Test
+    @UiThreadTest
+    @SuppressWarnings("deprecation")
+    public void setPaddingOnViewThatLostItsShadowBackground() {
+    
+        MaterialTextView view = createView(false, 8);
+        
+        view.setBackgroundDrawable(new ColorDrawable(0xffffffff));
+        layout(view);
+        
+        view.setPadding(1, 2, 3, 4);
+        
+        assertPadding(view, 1, 2, 3, 4);
+    
+    }
+    
+    @Test
+    @UiThreadTest
+    public void setPaddingOnOutsideBoundsView() {
+    
+        MaterialTextView view = createView(true, 8);
+        view.setPadding(1, 2, 3, 4);
+        
+        assertPadding(view, 1, 2, 3, 4);
+    
+    }
+    
+    @Test
+    @UiThreadTest
+    public void setPaddingOnViewThatWentFlat() {
+    
+        MaterialTextView view = createView(false, 8);
+        
+        view.setElevation(0);
+        layout(view);
+        
+        view.setPadding(1, 2, 3, 4);
+        
+        assertPadding(view, 1, 2, 3, 4);
+    
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,145 @@
+package robertapengelly.support.widget;
+
+import  android.content.Context;
+import  android.graphics.Rect;
+import  android.os.Build;
+import  android.text.Spannable;
+import  android.text.SpannableString;
+import  android.text.Spanned;
+import  android.text.TextUtils;
+import  android.text.method.TransformationMethod;
+import  android.view.View;
+
+import  java.util.HashMap;
+import  java.util.Locale;
+
+/**
+ * Transforms source text into an ALL CAPS string, locale-aware. One instance is shared per locale
+ * and remembers the last text it transformed, which list rows rebinding the same labels hit a lot.
+ */
+final class AllCapsTransformationMethod implements TransformationMethod {
+
+    private static final HashMap<Locale, AllCapsTransformationMethod> sInstances = new HashMap<>();
+    
+    private final Locale mLocale;
+    
+    private CharSequence mLastResult;
+    private CharSequence mLastSource;
+    
+    private AllCapsTransformationMethod(Locale locale) {
+        mLocale = locale;
+    }
+    
+    static AllCapsTransformationMethod getInstance(Context context) {
+    
+        Locale locale;
+        
+        if (Build.VERSION.SDK_INT >= 24)
+            locale = context.getResources().getConfiguration().getLocales().get(0);
+        else
+            //noinspection deprecation
+            locale = context.getResources().getConfiguration().locale;
+        
+        synchronized (sInstances) {
+        
+            AllCapsTransformationMethod method = sInstances.get(locale);
+            
+            if (method == null) {
+            
+                method = new AllCapsTransformationMethod(locale);
+                sInstances.put(locale, method);
+            
+            }
+            
+            return method;
+        
+        }
+    
+    }
+    
+    @Override
+    public synchronized CharSequence getTransformation(CharSequence source, View view) {
+    
+        if (source == null)
+            return null;
+        
+        final boolean immutable = isImmutable(source);
+        
+        if (immutable && (mLastSource != null) && ((mLastSource == source)
+            || ((source instanceof String) && source.equals(mLastSource))))
+            return mLastResult;
+        
+        final CharSequence result = toUpperCase(source);
+        
+        if (immutable) {
+        
+            mLastResult = result;
+            mLastSource = source;
+        
+        }
+        
+        return result;
+    
+    }
+    
+    /** Spannables can change under us so only immutable text is remembered. */
+    private static boolean isImmutable(CharSequence text) {
+        return ((text instanceof String) || ((text instanceof Spanned) && !(text instanceof Spannable)));
+    }
+    
+    /** Returns whether upper casing would leave the text as it is. */
+    private static boolean isUpperCase(CharSequence text) {
+    
+        final int length = text.length();
+        
+        // letters outside the basic plane are surrogate pairs, which only have a case as a whole
+        for (int i = 0; i < length; ) {
+        
+            final int codePoint = Character.codePointAt(text, i);
+            
+            // titlecase letters aren't lower case but still change when upper cased
+            if (Character.isLowerCase(codePoint) || (Character.toUpperCase(codePoint) != codePoint))
+                return false;
+            
+            i += Character.charCount(codePoint);
+        
+        }
+        
+        return true;
+    
+    }
+    
+    @Override
+    public void onFocusChanged(View view, CharSequence sourceText, boolean focused, int direction,
+        Rect previouslyFocusedRect) {}
+    
+    /** Remembers a transformation made ahead of time, such as while precomputing text on a worker thread. */
+    synchronized void remember(CharSequence source, CharSequence result) {
+    
+        if (!isImmutable(source))
+            return;
+        
+        mLastResult = result;
+        mLastSource = source;
+    
+    }
+    
+    private CharSequence toUpperCase(CharSequence source) {
+    
+        if (isUpperCase(source))
+            return source;
+        
+        final String upper = source.toString().toUpperCase(mLocale);
+        
+        // spans can only be carried over if every character maps onto exactly one character
+        if (!(source instanceof Spanned) || (upper.length() != source.length()))
+            return upper;
+        
+        SpannableString result = new SpannableString(upper);
+        TextUtils.copySpansFrom((Spanned) source, 0, source.length(), null, result, 0);
+        
+        return result;
+    
+    }
+
+}
\ No newline at end of file
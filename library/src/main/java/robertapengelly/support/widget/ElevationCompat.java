@@ -1,65 +1,33 @@
 package robertapengelly.support.widget;
 
-import  android.content.res.ColorStateList;
 import  android.content.res.Resources;
 import  android.content.res.Resources.Theme;
 import  android.content.res.TypedArray;
 import  android.content.res.XmlResourceParser;
-import  android.graphics.drawable.Drawable;
 import  android.util.AttributeSet;
 import  android.util.TypedValue;
 import  android.util.Xml;
 import  android.view.View;
 
 import  java.io.IOException;
+import  java.util.Arrays;
 
 import  org.xmlpull.v1.XmlPullParser;
 import  org.xmlpull.v1.XmlPullParserException;
 
-import  robertapengelly.support.graphics.drawable.StateListDrawable;
 import  robertapengelly.support.materialtextview.R;
 
 class ElevationCompat {
 
-    static String getResourceName(Resources res, int resid) {
+    private static final int MAX_CACHED_SPECS = 64;
     
-        TypedValue value = new TypedValue();
-        res.getValue(resid, value, true);
-        
-        if (value.resourceId == 0)
-            return null;
-        
-        if (value.string == null)
-            throw new Resources.NotFoundException("Resource \"" + res.getResourceName(value.resourceId) + "\" (" +
-                Integer.toHexString(value.resourceId) + ")  is not a Drawable (color or path): " + value);
-        
-        String file = value.string.toString();
-        
-        if (!file.endsWith(".xml"))
-            return null;
-        
-        String name = null;
-        
-        try {
-        
-            XmlResourceParser rp = res.getAssets().openXmlResourceParser(value.assetCookie, file);
-            
-            int type;
-            
-            //noinspection StatementWithEmptyBody
-            while (((type = rp.next()) != XmlPullParser.START_TAG) && (type != XmlPullParser.END_DOCUMENT));
-            
-            if (type != XmlPullParser.START_TAG)
-                throw new XmlPullParserException("No start tag found");
-            
-            name = rp.getName();
-            rp.close();
-        
-        } catch (Exception ignored) {}
-        
-        return name;
+    private static final int[] COLOR_ATTRS = { android.R.attr.color };
     
-    }
+    /** Parsed shadow specs keyed by resource id, per theme and configuration. */
+    private static final ThemeCache<ShadowSpec> sSpecCache = new ThemeCache<>(MAX_CACHED_SPECS);
+    
+    /** Cached for backgrounds without shadow, so that a miss and a background without shadow differ. */
+    private static final ShadowSpec NO_SHADOW = new ShadowSpec(0);
     
     static int getShadowAlphaFromColor(int color) {
     
@@ -68,16 +36,16 @@ class ElevationCompat {
     
     }
     
-    private static Drawable getShadowFromInset(Resources r, XmlPullParser parser, AttributeSet attrs, Theme theme,
-        MaterialTextView materialTextView) throws XmlPullParserException, IOException {
+    private static ShadowSpec getShadowFromInset(Resources r, XmlPullParser parser, AttributeSet attrs, Theme theme)
+        throws XmlPullParserException, IOException {
         
-        Drawable shadow;
+        ShadowSpec shadow;
         
         final TypedArray a = obtainAttributes(r, theme, attrs, R.styleable.InsetDrawable);
         final int resid = a.getResourceId(R.styleable.InsetDrawable_android_drawable, 0);
         
         if (resid != 0)
-            shadow = getShadowFromResource(r, resid, theme, materialTextView);
+            shadow = getShadowFromResource(r, resid, theme, false);
         else {
         
             int type;
@@ -89,7 +57,7 @@ class ElevationCompat {
                 throw new XmlPullParserException(parser.getPositionDescription()
                     + ": <inset> tag requires a 'drawable' attribute or child tag defining a drawable");
             
-            shadow = getShadowFromXmlInner(r, parser, attrs, theme, materialTextView);
+            shadow = getShadowFromXmlInner(r, parser, attrs, theme);
         
         }
         
@@ -127,7 +95,7 @@ class ElevationCompat {
             
             }
             
-            ((ShadowDrawable) shadow).setInsets(insetLeft, insetTop, insetRight, insetBottom);
+            shadow = shadow.withInsets(insetLeft, insetTop, insetRight, insetBottom);
         
         }
         
@@ -137,8 +105,8 @@ class ElevationCompat {
     
     }
     
-    private static Drawable getShadowFromLayerList(Resources r, XmlPullParser parser, AttributeSet attrs, Theme theme,
-        MaterialTextView materialTextView) throws XmlPullParserException, IOException {
+    private static ShadowSpec getShadowFromLayerList(Resources r, XmlPullParser parser, AttributeSet attrs, Theme theme)
+        throws XmlPullParserException, IOException {
         
         final int innerDepth = (parser.getDepth() + 1);
         int depth, type;
@@ -158,7 +126,7 @@ class ElevationCompat {
             a.recycle();
             
             if (resid != 0)
-                return getShadowFromResource(r, resid, theme, materialTextView);
+                return getShadowFromResource(r, resid, theme, false);
             else {
             
                 //noinspection StatementWithEmptyBody
@@ -168,7 +136,7 @@ class ElevationCompat {
                     throw new XmlPullParserException(parser.getPositionDescription()
                         + ": <item> tag requires a 'drawable' attribute or child tag defining a drawable");
                 
-                return getShadowFromXmlInner(r, parser, attrs, theme, materialTextView);
+                return getShadowFromXmlInner(r, parser, attrs, theme);
             
             }
         
@@ -178,8 +146,70 @@ class ElevationCompat {
     
     }
     
-    static Drawable getShadowFromResource(Resources res, int resid, Resources.Theme theme,
-        MaterialTextView materialTextView) {
+    /**
+     * Takes the shadow from the default color of a color or color state list value. State lists are
+     * read straight from their xml, without loading a ColorStateList through the resources' cache.
+     */
+    private static ShadowSpec getShadowFromColor(Resources r, TypedValue value, Theme theme)
+        throws XmlPullParserException, IOException {
+        
+        if ((value.type >= TypedValue.TYPE_FIRST_COLOR_INT) && (value.type <= TypedValue.TYPE_LAST_COLOR_INT))
+            return new ShadowSpec(getShadowAlphaFromColor(value.data));
+        
+        if ((value.string == null) || !value.string.toString().endsWith(".xml"))
+            return null;
+        
+        XmlResourceParser parser = r.getAssets().openXmlResourceParser(value.assetCookie, value.string.toString());
+        AttributeSet attrs = Xml.asAttributeSet(parser);
+        
+        // like ColorStateList, the default is the last item without states, or the first item if all have some
+        boolean found = false;
+        int color = 0, type;
+        
+        try {
+        
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            
+                if ((type != XmlPullParser.START_TAG) || !parser.getName().equals("item"))
+                    continue;
+                
+                TypedArray a = obtainAttributes(r, theme, attrs, COLOR_ATTRS);
+                
+                final TypedValue item = new TypedValue();
+                final boolean hasColor = (a.getValue(0, item) && (item.type >= TypedValue.TYPE_FIRST_COLOR_INT)
+                    && (item.type <= TypedValue.TYPE_LAST_COLOR_INT));
+                
+                a.recycle();
+                
+                if (!hasColor)
+                    continue;
+                
+                boolean stateless = true;
+                
+                for (int i = 0; i < attrs.getAttributeCount(); ++i)
+                    if (attrs.getAttributeNameResource(i) != android.R.attr.color)
+                        stateless = false;
+                
+                if (!found || stateless)
+                    color = item.data;
+                
+                found = true;
+            
+            }
+        
+        } finally {
+            parser.close();
+        }
+        
+        return (found ? new ShadowSpec(getShadowAlphaFromColor(color)) : null);
+    
+    }
+    
+    /**
+     * Parses the shadow from a drawable resource in a single pass. Only the root element may be a
+     * selector, in which case a shadow is parsed for every state.
+     */
+    private static ShadowSpec getShadowFromResource(Resources res, int resid, Resources.Theme theme, boolean root) {
         
         TypedValue value = new TypedValue();
         res.getValue(resid, value, true);
@@ -196,13 +226,13 @@ class ElevationCompat {
         if (!file.endsWith(".xml"))
             return null;
         
-        Drawable shadow = null;
+        ShadowSpec shadow = null;
         
         try {
         
             XmlResourceParser rp = res.getAssets().openXmlResourceParser(value.assetCookie, file);
             
-            shadow = getShadowFromXml(res, rp, theme, materialTextView);
+            shadow = getShadowFromXml(res, rp, theme, root);
             
             rp.close();
         
@@ -212,13 +242,13 @@ class ElevationCompat {
     
     }
     
-    private static Drawable getShadowFromRipple(Resources r, XmlPullParser parser, AttributeSet attrs, Theme theme,
-        MaterialTextView materialTextView) throws XmlPullParserException, IOException {
+    private static ShadowSpec getShadowFromRipple(Resources r, XmlPullParser parser, AttributeSet attrs, Theme theme)
+        throws XmlPullParserException, IOException {
         
         final int innerDepth = (parser.getDepth() + 1);
         int depth, type;
         
-        Drawable shadow = null;
+        ShadowSpec shadow = null;
         
         while (((type = parser.next()) != XmlPullParser.END_DOCUMENT) && (((depth = parser.getDepth()) >= innerDepth)
             || (type != XmlPullParser.END_TAG))) {
@@ -239,7 +269,7 @@ class ElevationCompat {
             if (id != android.R.id.mask) {
             
                 if (resid != 0)
-                    shadow = getShadowFromResource(r, resid, theme, materialTextView);
+                    shadow = getShadowFromResource(r, resid, theme, false);
                 else {
                 
                     //noinspection StatementWithEmptyBody
@@ -249,7 +279,7 @@ class ElevationCompat {
                         throw new XmlPullParserException(parser.getPositionDescription()
                             + ": <item> tag requires a 'drawable' attribute or child tag defining a drawable");
                     
-                    shadow = getShadowFromXmlInner(r, parser, attrs, theme, materialTextView);
+                    shadow = getShadowFromXmlInner(r, parser, attrs, theme);
                 
                 }
             
@@ -261,15 +291,92 @@ class ElevationCompat {
     
     }
     
-    private static Drawable getShadowFromShape(Resources r, XmlPullParser parser, AttributeSet attrs, Theme theme,
-        MaterialTextView materialTextView) throws XmlPullParserException, IOException {
+    private static ShadowSpec getShadowFromSelector(Resources r, XmlPullParser parser, AttributeSet attrs,
+        Theme theme) {
+        
+        ShadowSpec[] shadows = new ShadowSpec[0];
+        int[][] stateSets = new int[0][];
+        
+        try {
+        
+            final int innerDepth = (parser.getDepth() + 1);
+            
+            int depth, j = 0, type;
+            ShadowSpec shadow;
+            
+            while (((type = parser.next()) != XmlPullParser.END_DOCUMENT) && (((depth = parser.getDepth()) >= innerDepth)
+                || (type != XmlPullParser.END_TAG))) {
+                
+                if (type != XmlPullParser.START_TAG)
+                    continue;
+                
+                if ((depth > innerDepth) || !parser.getName().equals("item"))
+                    continue;
+                
+                int drawableRes = 0;
+                int i, k = 0;
+                
+                final int numAttrs = attrs.getAttributeCount();
+                int[] stateSet = new int[numAttrs];
+                
+                for (i = 0; i < numAttrs; ++i) {
+                
+                    final int stateResId = attrs.getAttributeNameResource(i);
+                    
+                    if (stateResId == 0)
+                        break;
+                    
+                    if (stateResId == android.R.attr.drawable)
+                        drawableRes = attrs.getAttributeResourceValue(i, 0);
+                    else
+                        stateSet[k++] = (attrs.getAttributeBooleanValue(i, false) ? stateResId : -stateResId);
+                
+                }
+                
+                if (drawableRes != 0)
+                    shadow = getShadowFromResource(r, drawableRes, theme, false);
+                else {
+                
+                    //noinspection StatementWithEmptyBody
+                    while ((type = parser.next()) == XmlPullParser.TEXT);
+                    
+                    if (type != XmlPullParser.START_TAG)
+                        throw new XmlPullParserException(parser.getPositionDescription()
+                            + ": <item> tag requires a 'drawable' attribute or child tag defining a drawable");
+                    
+                    shadow = getShadowFromXmlInner(r, parser, attrs, theme);
+                
+                }
+                
+                // keep states without a shadow so the remaining states still match in order
+                if (shadow == null)
+                    shadow = new ShadowSpec(0);
+                
+                shadows = Arrays.copyOf(shadows, (j + 1));
+                shadows[j] = shadow;
+                
+                stateSets = Arrays.copyOf(stateSets, (j + 1));
+                stateSets[j] = Arrays.copyOf(stateSet, k);
+                
+                j++;
+            
+            }
+        
+        } catch (Exception ignored) {}
+        
+        return new ShadowSpec(stateSets, shadows);
+    
+    }
+    
+    private static ShadowSpec getShadowFromShape(Resources r, XmlPullParser parser, AttributeSet attrs, Theme theme)
+        throws XmlPullParserException, IOException {
         
         TypedArray a;
         
         final int innerDepth = (parser.getDepth() + 1);
         int depth, type;
         
-        Drawable shadow = null;
+        ShadowSpec shadow = null;
         
         while (((type = parser.next()) != XmlPullParser.END_DOCUMENT)
             && (((depth = parser.getDepth()) >= innerDepth) || (type != XmlPullParser.END_TAG))) {
@@ -286,14 +393,10 @@ class ElevationCompat {
             
                 a = obtainAttributes(r, theme, attrs, R.styleable.GradientDrawableSolid);
                 
-                final ColorStateList colorStateList = a.getColorStateList(R.styleable.GradientDrawableSolid_android_color);
-                
-                if (colorStateList != null) {
+                final TypedValue value = new TypedValue();
                 
-                    shadow = new ShadowDrawable(r, materialTextView.getRadius(), materialTextView.getElevation());
-                    shadow.setAlpha(getShadowAlphaFromColor(colorStateList.getDefaultColor()));
-                
-                }
+                if (a.getValue(R.styleable.GradientDrawableSolid_android_color, value))
+                    shadow = getShadowFromColor(r, value, theme);
                 
                 a.recycle();
             
@@ -305,8 +408,8 @@ class ElevationCompat {
     
     }
     
-    private static Drawable getShadowFromXml(Resources r, XmlPullParser parser, Resources.Theme theme,
-        MaterialTextView materialTextView) throws XmlPullParserException, IOException {
+    private static ShadowSpec getShadowFromXml(Resources r, XmlPullParser parser, Resources.Theme theme,
+        boolean root) throws XmlPullParserException, IOException {
         
         AttributeSet attrs = Xml.asAttributeSet(parser);
         
@@ -318,32 +421,35 @@ class ElevationCompat {
         if (type != XmlPullParser.START_TAG)
             throw new XmlPullParserException("No start tag found");
         
-        return getShadowFromXmlInner(r, parser, attrs, theme, materialTextView);
+        if (root && parser.getName().equals("selector"))
+            return getShadowFromSelector(r, parser, attrs, theme);
+        
+        return getShadowFromXmlInner(r, parser, attrs, theme);
     
     }
     
-    private static Drawable getShadowFromXmlInner(Resources r, XmlPullParser parser, AttributeSet attrs,
-        Resources.Theme theme, MaterialTextView materialTextView) throws XmlPullParserException, IOException {
+    private static ShadowSpec getShadowFromXmlInner(Resources r, XmlPullParser parser, AttributeSet attrs,
+        Resources.Theme theme) throws XmlPullParserException, IOException {
         
         final String name = parser.getName();
         
-        Drawable shadow = null;
+        ShadowSpec shadow = null;
         
         try {
         
             switch (name) {
             
                 case "inset":
-                    shadow = getShadowFromInset(r, parser, attrs, theme, materialTextView);
+                    shadow = getShadowFromInset(r, parser, attrs, theme);
                     break;
                 case "layer-list":
-                    shadow = getShadowFromLayerList(r, parser, attrs, theme, materialTextView);
+                    shadow = getShadowFromLayerList(r, parser, attrs, theme);
                     break;
                 case "ripple":
-                    shadow = getShadowFromRipple(r, parser, attrs, theme, materialTextView);
+                    shadow = getShadowFromRipple(r, parser, attrs, theme);
                     break;
                 case "shape":
-                    shadow = getShadowFromShape(r, parser, attrs, theme, materialTextView);
+                    shadow = getShadowFromShape(r, parser, attrs, theme);
                     break;
             
             }
@@ -354,96 +460,29 @@ class ElevationCompat {
     
     }
     
-    static Drawable getShadowStatesFromResource(Resources res, int resid, Resources.Theme theme,
-        MaterialTextView materialTextView, StateListDrawable states) {
+    /**
+     * Returns the shadow spec for a background resource, or null if it doesn't cast a shadow.
+     * Specs are parsed once per resource, theme and configuration and then shared. Parsing only
+     * reads the resources and the theme, so this may be called from any thread as long as the theme
+     * isn't changed meanwhile.
+     */
+    static ShadowSpec getShadowSpec(Resources res, int resid, Resources.Theme theme) {
     
-        TypedValue value = new TypedValue();
-        res.getValue(resid, value, true);
-        
-        if (value.resourceId == 0)
-            return null;
-        
-        if (value.string == null)
-            throw new Resources.NotFoundException("Resource \"" + res.getResourceName(value.resourceId) + "\" (" +
-                Integer.toHexString(value.resourceId) + ")  is not a Drawable (color or path): " + value);
-        
-        String file = value.string.toString();
-        
-        if (!file.endsWith(".xml"))
-            return null;
-        
-        StateListDrawable shadows = new StateListDrawable();
+        ShadowSpec spec = sSpecCache.get(res, theme, resid);
         
-        try {
+        if (spec == null) {
         
-            XmlResourceParser rp = res.getAssets().openXmlResourceParser(value.assetCookie, file);
-            
-            AttributeSet attrs = Xml.asAttributeSet(rp);
+            // threads racing for the same resource parse it each, the specs they get are equal
+            spec = getShadowFromResource(res, resid, theme, true);
             
-            int type;
+            if (spec == null)
+                spec = NO_SHADOW;
             
-            //noinspection StatementWithEmptyBody
-            while (((type = rp.next()) != XmlPullParser.START_TAG) && (type != XmlPullParser.END_DOCUMENT));
-            
-            if (type != XmlPullParser.START_TAG)
-                throw new XmlPullParserException("No start tag found");
-            
-            final int innerDepth = (rp.getDepth() + 1);
-            
-            int depth, j = 0;
-            Drawable shadow;
-            
-            while (((type = rp.next()) != XmlPullParser.END_DOCUMENT) && (((depth = rp.getDepth()) >= innerDepth)
-                || (type != XmlPullParser.END_TAG))) {
-                
-                if (type != XmlPullParser.START_TAG)
-                    continue;
-                
-                if ((depth > innerDepth) || !rp.getName().equals("item"))
-                    continue;
-                
-                int drawableRes = 0;
-                int i;
-                
-                final int numAttrs = attrs.getAttributeCount();
-                
-                for (i = 0; i < numAttrs; ++i) {
-                
-                    final int stateResId = attrs.getAttributeNameResource(i);
-                    
-                    if (stateResId == 0)
-                        break;
-                    
-                    if (stateResId == android.R.attr.drawable)
-                        drawableRes = attrs.getAttributeResourceValue(i, 0);
-                
-                }
-                
-                if (drawableRes != 0)
-                    shadow = getShadowFromResource(res, drawableRes, theme, materialTextView);
-                else {
-                
-                    //noinspection StatementWithEmptyBody
-                    while ((type = rp.next()) == XmlPullParser.TEXT);
-                    
-                    if (type != XmlPullParser.START_TAG)
-                        throw new XmlPullParserException(rp.getPositionDescription()
-                            + ": <item> tag requires a 'drawable' attribute or child tag defining a drawable");
-                    
-                    shadow = getShadowFromXmlInner(res, rp, attrs, theme, materialTextView);
-                
-                }
-                
-                shadows.addState(states.getStateSet(j), shadow);
-                j++;
-            
-            }
-            
-            rp.close();
+            sSpecCache.put(res, theme, resid, spec);
         
-        } catch (Exception ignored) {}
+        }
         
-        return shadows;
+        return ((spec != NO_SHADOW) ? spec : null);
     
     }
     
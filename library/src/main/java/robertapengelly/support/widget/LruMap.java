@@ -0,0 +1,26 @@
+package robertapengelly.support.widget;
+
+import  java.util.LinkedHashMap;
+import  java.util.Map;
+
+/**
+ * Access ordered map that drops its least recently used entry once it grows past its maximum size.
+ * android.util.LruCache is not available before API 12.
+ */
+class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+    private final int mMaxSize;
+    
+    LruMap(int maxSize) {
+        super(maxSize, .75f, true);
+        
+        mMaxSize = maxSize;
+    
+    }
+    
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return (size() > mMaxSize);
+    }
+
+}
\ No newline at end of file
@@ -1,22 +1,37 @@
 package robertapengelly.support.widget;
 
 import  android.content.Context;
+import  android.content.res.Resources;
 import  android.content.res.TypedArray;
+import  android.graphics.Canvas;
+import  android.graphics.PixelFormat;
 import  android.graphics.Rect;
 import  android.graphics.drawable.Drawable;
 import  android.os.Build;
+import  android.os.Handler;
+import  android.os.Looper;
+import  android.text.Layout;
+import  android.text.Spanned;
+import  android.text.TextPaint;
+import  android.text.TextUtils;
 import  android.text.method.TransformationMethod;
 import  android.util.AttributeSet;
 import  android.util.TypedValue;
 import  android.view.MotionEvent;
 import  android.view.View;
 import  android.view.ViewGroup;
+import  android.view.ViewParent;
+import  android.view.animation.AnimationUtils;
+import  android.view.animation.DecelerateInterpolator;
+import  android.view.animation.Interpolator;
 import  android.view.accessibility.AccessibilityEvent;
 import  android.view.accessibility.AccessibilityNodeInfo;
 import  android.widget.TextView;
 
-import  java.lang.reflect.Field;
-import  java.util.Locale;
+import  java.util.concurrent.Callable;
+import  java.util.concurrent.Executor;
+import  java.util.concurrent.Future;
+import  java.util.concurrent.FutureTask;
 
 import  robertapengelly.support.graphics.drawable.GradientDrawable;
 import  robertapengelly.support.graphics.drawable.InsetDrawable;
@@ -29,17 +44,111 @@ import  robertapengelly.support.view.DrawableHotspotTouch;
 
 public class MaterialTextView extends TextView {
 
+    /** Draws pre-lollipop shadows with gradient shaders every frame. This is the default. */
+    public static final int SHADOW_RENDER_MODE_GRADIENT = ShadowDrawable.RENDER_MODE_GRADIENT;
+    
+    /**
+     * Draws pre-lollipop shadows from a nine-patch that is rendered once and shared by every view
+     * with the same corner radius and elevation, whatever their shadow alpha.
+     */
+    public static final int SHADOW_RENDER_MODE_NINE_PATCH = ShadowDrawable.RENDER_MODE_NINE_PATCH;
+    
+    /**
+     * Draws pre-lollipop shadows from outlines that are laid out once per size change, without any
+     * canvas save, restore or transform calls while drawing.
+     */
+    public static final int SHADOW_RENDER_MODE_PATH = ShadowDrawable.RENDER_MODE_PATH;
+    
+    /**
+     * Draws pre-lollipop shadows from a fully rendered bitmap that is shared by every view of the same
+     * size, corner radius and elevation, such as the rows of a uniform list.
+     */
+    public static final int SHADOW_RENDER_MODE_SHARED_BITMAP = ShadowDrawable.RENDER_MODE_SHARED_BITMAP;
+    
+    private static final int MAX_CACHED_EDITOR_DRAWABLES = 16;
+    
+    /** Whether views share the desired widths of their labels through {@link TextWidthCache}. */
+    private static volatile boolean sTextWidthCacheEnabled;
+    
+    /** Hands shadows parsed by {@link #setBackgroundResourceAsync(int, Executor)} back to the UI thread. */
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    
+    /** Cursor and selection handle drawables shared by every view with the same theme. */
+    private static final ThemeCache<Drawable.ConstantState> sEditorDrawables =
+        new ThemeCache<>(MAX_CACHED_EDITOR_DRAWABLES);
+    
     private float mElevation = 0, mRadius = 0;
     
+    /**
+     * Elevations the shadow space is reserved for before API 21, and the elevation the shadow is drawn
+     * at right now which differs from mElevation while animating or held by a state elevation.
+     */
+    private float mMaxElevation = 0, mShadowElevation = 0;
+    private ShadowElevationAnimator mShadowAnimator;
+    
+    /** Whether the shadow elevation is moving, which draws the shadow with gradients whatever the render mode. */
+    private boolean mShadowAnimating;
+    
+    /** Elevations for the disabled, focused and pressed states, negative if they follow the elevation. */
+    private boolean mHasStateElevations;
+    private float mDisabledElevation = -1, mFocusedElevation = -1, mPressedElevation = -1;
+    
+    private int mShadowRenderMode = SHADOW_RENDER_MODE_GRADIENT;
+    
+    /** Whether the shadow skips the interior, follows the background opacity unless set explicitly. */
+    private boolean mShadowRingOnly, mShadowRingOnlySet;
+    
     private int mBaseHeight, mBaseWidth, mMinHeight, mMinWidth;
+    
+    /**
+     * The area touches are accepted in while a shadow layer is installed: the view minus the content
+     * inset of the shadow layer, grown by the touch slop. Only updated when either of them changes.
+     */
+    private final Rect mContentHitRect = new Rect();
+    private int mContentInset, mContentTouchSlop;
+    
+    /** Nesting depth of shadow update batches, layout and invalidate requests are deferred while it's above zero. */
+    private boolean mShadowInvalidateRequested, mShadowLayoutRequested;
+    private int mShadowUpdateDepth;
+    
     private int mOriginalMarginBottom, mOriginalMarginTop;
     private int mOriginalPaddingBottom, mOriginalPaddingLeft, mOriginalPaddingRight, mOriginalPaddingTop;
     
     private Drawable mBackground = null, mShadow = null;
+    
+    /** The resource the background was last set from, 0 if it was set any other way. */
+    private int mBackgroundRes;
+    
+    /** Counts background changes so that backgrounds prepared asynchronously don't replace newer ones. */
+    private int mBackgroundGeneration;
+    
+    /**
+     * Whether the background is stacked on the shadow layer and whether the size, padding and margins
+     * make room for it. Neither is the case while the view casts no shadow at any elevation.
+     */
+    private boolean mShadowLayered, mShadowLayoutApplied;
+    
+    /** Whether the shadow is drawn by the view around its bounds rather than by a layer inside them. */
+    private boolean mShadowOutsideBounds;
+    private ShadowDrawable[] mShadowDrawables;
     private DrawableHotspotTouch mDrawableHotspotTouch;
     
     private Object mEditor;
     
+    /**
+     * Cursor and selection handle drawables are only needed once the text can be edited or selected,
+     * so their resources are recorded and applied the first time that happens.
+     */
+    private boolean mEditorDecorationsPending;
+    private int mCursorDrawableRes, mSelectHandleCenterRes, mSelectHandleLeftRes, mSelectHandleRightRes;
+    
+    /** Text being prepared off the UI thread, its measurements are taken once it is done unless other text is set first. */
+    private Future<PreparedText> mTextFuture;
+    
+    /** The desired width measured for the last prepared text, used while that text is shown. */
+    private int mPreparedWidth;
+    private TextWidthCache.Key mPreparedWidthKey;
+    
     /**
      * MaterialTextView requires to have a particular minimum size to draw shadows before API 21. If
      * developer also sets min width/height, they might be overridden.
@@ -62,131 +171,291 @@ public class MaterialTextView extends TextView {
         
         mRadius = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 2f, getResources().getDisplayMetrics());
         
+        MaterialTextViewAttributes a = MaterialTextViewAttributes.obtain(context, attrs, defStyleAttr);
+        
+        mShadowOutsideBounds = a.shadowOutsideBounds;
+        mShadowRenderMode = a.shadowRenderMode;
+        
+        if (a.shadowRingOnly != null) {
+        
+            mShadowRingOnly = a.shadowRingOnly;
+            mShadowRingOnlySet = true;
+        
+        }
+        
+        if (a.appearanceAllCaps != null)
+            setAllCaps(a.appearanceAllCaps);
+        
+        if (a.backgroundRes != 0)
+            setBackgroundResource(a.backgroundRes);
+        else if (a.backgroundColor != 0)
+            setBackgroundColor(a.backgroundColor);
+        
+        mCursorDrawableRes = a.cursorDrawableRes;
+        mSelectHandleCenterRes = a.selectHandleCenterRes;
+        mSelectHandleLeftRes = a.selectHandleLeftRes;
+        mSelectHandleRightRes = a.selectHandleRightRes;
+        
+        if ((a.compatBackgroundRes != 0) && (getBackground() == null))
+            setBackgroundResource(a.compatBackgroundRes);
+        
+        if (!Float.isNaN(a.elevation))
+            setElevation(a.elevation);
+        
+        if (!Float.isNaN(a.maxElevation))
+            setMaxElevation(a.maxElevation);
+        
+        if (!Float.isNaN(a.disabledElevation))
+            setDisabledElevation(a.disabledElevation);
+        
+        if (!Float.isNaN(a.focusedElevation))
+            setFocusedElevation(a.focusedElevation);
+        
+        if (!Float.isNaN(a.pressedElevation))
+            setPressedElevation(a.pressedElevation);
+        
+        if (a.allCaps != null)
+            setAllCaps(a.allCaps);
+        
+        mOriginalPaddingBottom = a.paddingBottom;
+        mOriginalPaddingLeft = a.paddingLeft;
+        mOriginalPaddingRight = a.paddingRight;
+        mOriginalPaddingTop = a.paddingTop;
+        
+        mUserSetMinHeight = a.minHeight;
+        mUserSetMinWidth = a.minWidth;
+        
+        mEditorDecorationsPending = ((mCursorDrawableRes != 0) || (mSelectHandleCenterRes != 0)
+            || (mSelectHandleLeftRes != 0) || (mSelectHandleRightRes != 0));
+        
+        if (onCheckIsTextEditor() || ((Build.VERSION.SDK_INT >= 11) && isTextSelectable()))
+            applyEditorDecorations();
+    
+    }
+    
+    /** Applies the recorded cursor and selection handle drawables once the view has an editor. */
+    private void applyEditorDecorations() {
+    
+        if (!mEditorDecorationsPending)
+            return;
+        
         if (Build.VERSION.SDK_INT >= 11) {
         
+            mEditor = TextViewFields.get(TextView.class, this, TextViewFields.EDITOR);
+            
+            // the editor is created lazily from API 16, try again when the view becomes selectable
+            if ((mEditor == null) && (TextViewFields.getField(TextView.class, TextViewFields.EDITOR) != null))
+                return;
+        
+        }
+        
+        mEditorDecorationsPending = false;
+        
+        if (mCursorDrawableRes != 0) {
+        
             try {
             
-                Field field = TextView.class.getDeclaredField("mEditor");
-                field.setAccessible(true);
-                
-                mEditor = field.get(this);
+                Drawable drawable = getEditorDrawable(mCursorDrawableRes);
+                setEditorField(TextViewFields.CURSOR_DRAWABLE, new Drawable[] { drawable, drawable });
             
             } catch (Exception ignored) {}
         
         }
         
-        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.MaterialTextView, defStyleAttr, 0);
+        if (mSelectHandleLeftRes != 0)
+            setTextSelectHandle(TextViewFields.SELECT_HANDLE_LEFT, mSelectHandleLeftRes);
         
-        int ap = a.getResourceId(R.styleable.MaterialTextView_android_textAppearance, -1);
+        if (mSelectHandleCenterRes != 0)
+            setTextSelectHandle(TextViewFields.SELECT_HANDLE_CENTER, mSelectHandleCenterRes);
         
-        if (ap != -1)
-            setTextAppearanceInternal(ap);
+        if (mSelectHandleRightRes != 0)
+            setTextSelectHandle(TextViewFields.SELECT_HANDLE_RIGHT, mSelectHandleRightRes);
+    
+    }
+    
+    private void applyShadowOptions() {
+    
+        final boolean ringOnly = isShadowRingOnly();
         
-        int count = a.getIndexCount();
+        for (ShadowDrawable shadow : getShadowDrawables()) {
+        
+            shadow.setRenderMode(mShadowRenderMode);
+            shadow.setRingOnly(ringOnly);
+        
+        }
+    
+    }
+    
+    /**
+     * Starts a batch of shadow related changes. Min size, padding, inset and margin updates made until
+     * the matching {@link #commitShadowUpdate()} only request a single layout pass and a single
+     * invalidation. Calls may be nested.
+     */
+    public void beginShadowUpdate() {
+        ++mShadowUpdateDepth;
+    }
+    
+    /**
+     * Binds the view in one pass, as list adapters do for every row. Text, background resource,
+     * elevation and all caps are compared with what the view has and only what differs is applied,
+     * ending in at most one layout request and one invalidation. A background resource of 0 keeps
+     * the current background.
+     */
+    public void bind(CharSequence text, int backgroundRes, float elevation, boolean allCaps) {
+    
+        beginShadowUpdate();
         
-        for (int i = 0; i < count; ++i) {
+        try {
         
-            int attr = a.getIndex(i);
+            final boolean capsShown = (getTransformationMethod() instanceof AllCapsTransformationMethod);
             
-            if (attr == R.styleable.MaterialTextView_android_background) {
+            // other transformations, such as single line or password, are left alone unless caps are wanted
+            if (allCaps && !capsShown)
+                setAllCaps(true);
+            else if (!allCaps && capsShown)
+                setAllCaps(false);
             
-                int resid = a.getResourceId(attr, 0);
-                
-                if (resid != 0)
-                    setBackgroundResource(resid);
-                else {
-                
-                    int color = a.getColor(attr, 0);
-                    
-                    if (color != 0)
-                        setBackgroundColor(color);
-                
-                }
+            final CharSequence current = super.getText();
             
-            } else if (attr == R.styleable.MaterialTextView_android_textCursorDrawable) {
+            // spans aren't compared so styled text is always set again
+            if ((mTextFuture != null) || ((text != current) && ((text instanceof Spanned)
+                || (current instanceof Spanned) || !TextUtils.equals(text, current))))
+                setText(text);
             
-                // Setting the text cursor isn't available on pre-honeycomb devices so we can
-                // just continue the loop.
-                if (Build.VERSION.SDK_INT < 12)
-                    continue;
-                
-                int resid = a.getResourceId(attr, 0);
-                
-                try {
+            final boolean backgroundChanged = ((backgroundRes != 0) && (backgroundRes != mBackgroundRes));
+            
+            if (getElevation() != elevation) {
+            
+                if (backgroundChanged && (Build.VERSION.SDK_INT < 21)) {
                 
-                    Drawable drawable = LollipopDrawablesCompat.getDrawable(context, resid);
+                    // the new background builds its shadow at this elevation, the old one isn't resized first
+                    if (mShadowAnimator != null)
+                        mShadowAnimator.end();
                     
-                    Field field = mEditor.getClass().getDeclaredField("mCursorDrawable");
-                    field.setAccessible(true);
-                    field.set(mEditor, new Drawable[] { drawable, drawable });
+                    mElevation = elevation;
+                    mShadowAnimating = false;
+                    mShadowElevation = elevation;
                 
-                } catch (Exception ignored) {}
-            
-            } else if (attr == R.styleable.MaterialTextView_android_textSelectHandleLeft) {
-            
-                int resid = a.getResourceId(attr, 0);
-                setTextSelectHandle("mSelectHandleLeft", resid);
-            
-            } else if (attr == R.styleable.MaterialTextView_android_textSelectHandle) {
-            
-                int resid = a.getResourceId(attr, 0);
-                setTextSelectHandle("mSelectHandleCenter", resid);
-            
-            } else if (attr == R.styleable.MaterialTextView_android_textSelectHandleRight) {
+                } else
+                    setElevation(elevation);
             
-                int resid = a.getResourceId(attr, 0);
-                setTextSelectHandle("mSelectHandleRight", resid);
+            }
             
-            } else if (attr == R.styleable.MaterialTextView_background) {
+            if (backgroundChanged) {
             
-                if (getBackground() != null)
-                    continue;
-                
-                int resid = a.getResourceId(attr, 0);
-                
-                if (resid != 0)
-                    setBackgroundResource(resid);
+                setBackgroundResource(backgroundRes);
+                applyStateElevation(false);
             
             }
         
+        } finally {
+            commitShadowUpdate();
+        }
+    
+    }
+    
+    /** Ends a batch started with {@link #beginShadowUpdate()}, requesting layout and invalidating once if needed. */
+    public void commitShadowUpdate() {
+    
+        if (mShadowUpdateDepth == 0)
+            throw new IllegalStateException("commitShadowUpdate() called without beginShadowUpdate()");
+        
+        if (--mShadowUpdateDepth > 0)
+            return;
+        
+        if (mShadowInvalidateRequested) {
+        
+            mShadowInvalidateRequested = false;
+            super.invalidate();
+        
         }
         
-        if (a.hasValue(R.styleable.MaterialTextView_elevation))
-            setElevation(a.getDimension(R.styleable.MaterialTextView_elevation, 0));
+        if (!mShadowLayoutRequested)
+            return;
+        
+        mShadowLayoutRequested = false;
+        super.requestLayout();
+    
+    }
+    
+    /**
+     * Moves the shadow to the elevation of the current drawable state. Only the drawn shadow changes,
+     * the room for it is reserved up front, so neither way triggers a layout pass.
+     */
+    private void applyStateElevation(boolean animate) {
+    
+        if (!mHasStateElevations)
+            return;
+        
+        final float elevation = getStateElevation();
         
-        if (a.hasValue(R.styleable.MaterialTextView_textAllCaps))
-            setAllCaps(a.getBoolean(R.styleable.MaterialTextView_textAllCaps, false));
+        if (animate) {
         
-        int padding = a.getDimensionPixelOffset(R.styleable.MaterialTextView_android_padding, 0);
-        mOriginalPaddingBottom = a.getDimensionPixelOffset(R.styleable.MaterialTextView_android_paddingBottom, padding);
-        mOriginalPaddingLeft = a.getDimensionPixelOffset(R.styleable.MaterialTextView_android_paddingLeft, padding);
-        mOriginalPaddingRight = a.getDimensionPixelOffset(R.styleable.MaterialTextView_android_paddingRight, padding);
-        mOriginalPaddingTop = a.getDimensionPixelOffset(R.styleable.MaterialTextView_android_paddingTop, padding);
+            if (mShadowAnimator == null)
+                mShadowAnimator = new ShadowElevationAnimator();
+            
+            if (mShadowAnimator.isRunning() || (elevation != getShadowElevation()))
+                mShadowAnimator.animateTo(elevation);
+        
+        } else {
         
-        mUserSetMinHeight = a.getDimensionPixelSize(R.styleable.MaterialTextView_android_minHeight, 0);
-        mUserSetMinWidth = a.getDimensionPixelSize(R.styleable.MaterialTextView_android_minWidth, 0);
+            if (mShadowAnimator != null)
+                mShadowAnimator.end();
+            
+            setShadowElevation(elevation, false);
         
-        a.recycle();
+        }
     
     }
     
     @Override
-    public boolean dispatchTouchEvent(MotionEvent event) {
-    
-        final int x = (int) event.getX();
-        final int y = (int) event.getY();
+    protected void drawableStateChanged() {
+        super.drawableStateChanged();
         
-        if (mShadow != null) {
+        // the shadow isn't part of the background while drawn outside the bounds
+        if (mShadowOutsideBounds && (mShadow != null) && mShadow.isStateful())
+            mShadow.setState(getDrawableState());
         
-            LayerDrawable layers = (LayerDrawable) super.getBackground();
+        applyStateElevation(true);
+    
+    }
+    
+    @Override
+    public void draw(Canvas canvas) {
+    
+        if (mShadowOutsideBounds && (mShadow != null) && (getReservedElevation() > 0)) {
+        
+            final ShadowDrawable[] shadows = getShadowDrawables();
+            
+            final int horizontal = ((shadows.length > 0) ? shadows[0].getHorizontalOutset() : 0);
+            final int vertical = ((shadows.length > 0) ? shadows[0].getVerticalOutset() : 0);
+            
+            mShadow.setBounds(-horizontal, -vertical, (getWidth() + horizontal), (getHeight() + vertical));
             
-            Drawable background = layers.getDrawable(1);
+            // drawn like the background, which doesn't scroll with the text
+            final int scrollX = getScrollX();
+            final int scrollY = getScrollY();
             
-            if (!background.getBounds().contains(x, y))
-                return false;
+            canvas.translate(scrollX, scrollY);
+            mShadow.draw(canvas);
+            
+            canvas.translate(-scrollX, -scrollY);
         
         }
         
+        super.draw(canvas);
+    
+    }
+    
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent event) {
+    
+        final int x = (int) event.getX();
+        final int y = (int) event.getY();
+        
+        if (mShadowLayered && !mContentHitRect.contains(x, y))
+            return false;
+        
         return super.dispatchTouchEvent(event);
     
     }
@@ -196,6 +465,32 @@ public class MaterialTextView extends TextView {
         return mBackground;
     }
     
+    public int getContentTouchSlop() {
+        return mContentTouchSlop;
+    }
+    
+    /**
+     * Returns a cursor or selection handle drawable. The first view to ask for a resource inflates
+     * it, later views with the same theme get a copy of its constant state.
+     */
+    private Drawable getEditorDrawable(int resid) {
+    
+        final Resources.Theme theme = getContext().getTheme();
+        
+        Drawable.ConstantState state = sEditorDrawables.get(getResources(), theme, resid);
+        
+        if (state != null)
+            return state.newDrawable(getResources());
+        
+        Drawable drawable = LollipopDrawablesCompat.getDrawable(getContext(), resid);
+        
+        if ((drawable != null) && ((state = drawable.getConstantState()) != null))
+            sEditorDrawables.put(getResources(), theme, resid, state);
+        
+        return drawable;
+    
+    }
+    
     public float getElevation() {
     
         if (Build.VERSION.SDK_INT >= 23)
@@ -229,6 +524,267 @@ public class MaterialTextView extends TextView {
         return mRadius;
     }
     
+    public float getDisabledElevation() {
+        return mDisabledElevation;
+    }
+    
+    public float getFocusedElevation() {
+        return mFocusedElevation;
+    }
+    
+    public float getMaxElevation() {
+        return mMaxElevation;
+    }
+    
+    public float getPressedElevation() {
+        return mPressedElevation;
+    }
+    
+    /** Returns the elevation reserved for shadows, which the drawn shadow never exceeds before API 21. */
+    private float getReservedElevation() {
+    
+        final float states = Math.max(mDisabledElevation, Math.max(mFocusedElevation, mPressedElevation));
+        return Math.max(mElevation, Math.max(mMaxElevation, states));
+    
+    }
+    
+    /** Returns the ShadowDrawables that make up the current shadow layer. */
+    private ShadowDrawable[] getShadowDrawables() {
+    
+        if (mShadowDrawables != null)
+            return mShadowDrawables;
+        
+        if (mShadow instanceof StateListDrawable) {
+        
+            StateListDrawable states = (StateListDrawable) mShadow;
+            
+            int count = states.getStateCount();
+            mShadowDrawables = new ShadowDrawable[count];
+            
+            for (int i = 0; i < count; ++i)
+                mShadowDrawables[i] = (ShadowDrawable) states.getStateDrawable(i);
+        
+        } else if (mShadow instanceof InsetDrawable)
+            mShadowDrawables = new ShadowDrawable[] { (ShadowDrawable) ((InsetDrawable) mShadow).getDrawable() };
+        else if (mShadow != null)
+            mShadowDrawables = new ShadowDrawable[] { (ShadowDrawable) mShadow };
+        else
+            mShadowDrawables = new ShadowDrawable[0];
+        
+        return mShadowDrawables;
+    
+    }
+    
+    /** Returns the elevation for the current drawable state, disabled before pressed before focused. */
+    private float getStateElevation() {
+    
+        final float elevation = ((Build.VERSION.SDK_INT >= 21) ? super.getElevation() : mElevation);
+        
+        if (!isEnabled())
+            return ((mDisabledElevation >= 0) ? mDisabledElevation : elevation);
+        
+        if (isPressed() && (mPressedElevation >= 0))
+            return mPressedElevation;
+        
+        if (isFocused() && (mFocusedElevation >= 0))
+            return mFocusedElevation;
+        
+        return elevation;
+    
+    }
+    
+    /** Returns the elevation the shadow is currently drawn at, including any animated offset. */
+    public float getShadowElevation() {
+    
+        if (Build.VERSION.SDK_INT >= 21)
+            return (super.getElevation() + getTranslationZ());
+        
+        return mShadowElevation;
+    
+    }
+    
+    /**
+     * Installs the background, stacked on the shadow layer only while the view casts a shadow at any
+     * of its elevations, so that flat views draw and hit test like a plain TextView.
+     */
+    private void installBackground() {
+    
+        mShadowLayered = wantsShadowLayer();
+        
+        //noinspection deprecation
+        super.setBackgroundDrawable(mShadowLayered ? new LayerDrawable(new Drawable[] { mShadow, mBackground })
+            : mBackground);
+        
+        if (!mShadowLayered && (mShadow != null)) {
+        
+            mShadow.setCallback(mShadowOutsideBounds ? this : null);
+            
+            if (mShadowOutsideBounds && mShadow.isStateful())
+                mShadow.setState(getDrawableState());
+        
+        }
+        
+        setContentInset(0);
+    
+    }
+    
+    @Override
+    public void invalidate() {
+    
+        // coalesced into one invalidation when the batch is committed
+        if (mShadowUpdateDepth > 0) {
+        
+            mShadowInvalidateRequested = true;
+            return;
+        
+        }
+        
+        super.invalidate();
+    
+    }
+    
+    @Override
+    public void invalidateDrawable(Drawable drawable) {
+    
+        if (!mShadowOutsideBounds || (drawable != mShadow)) {
+        
+            super.invalidateDrawable(drawable);
+            return;
+        
+        }
+        
+        final ShadowDrawable[] shadows = getShadowDrawables();
+        final ViewParent parent = getParent();
+        
+        if ((shadows.length == 0) || !(parent instanceof View)) {
+        
+            invalidate();
+            return;
+        
+        }
+        
+        // most of the shadow lies outside of this view, so the parent redraws the area around it
+        final int horizontal = shadows[0].getHorizontalOutset();
+        final int vertical = shadows[0].getVerticalOutset();
+        
+        ((View) parent).invalidate((getLeft() - horizontal), (getTop() - vertical), (getRight() + horizontal),
+            (getBottom() + vertical));
+    
+    }
+    
+    /**
+     * Returns whether the pre-lollipop shadow only paints the ring outside the content rect. Unless set
+     * with {@link #setShadowRingOnly(boolean)} this is the case whenever the background is opaque.
+     */
+    public boolean isShadowRingOnly() {
+    
+        if (mShadowRingOnlySet)
+            return mShadowRingOnly;
+        
+        return ((mBackground != null) && (mBackground.getOpacity() == PixelFormat.OPAQUE));
+    
+    }
+    
+    /** Returns whether the pre-lollipop shadow is drawn outside the view bounds. */
+    public boolean isShadowOutsideBounds() {
+        return mShadowOutsideBounds;
+    }
+    
+    public int getShadowRenderMode() {
+        return mShadowRenderMode;
+    }
+    
+    /**
+     * Returns the key the desired width of the text is cached under, or null if TextView would
+     * measure something else than the text and paint alone, such as a hint or compound drawables.
+     */
+    private TextWidthCache.Key getTextWidthKey(int widthMeasureSpec) {
+    
+        if ((!sTextWidthCacheEnabled && (mPreparedWidthKey == null)) || (Build.VERSION.SDK_INT < 16)
+            || (MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.EXACTLY))
+            return null;
+        
+        final CharSequence text = super.getText();
+        final TransformationMethod method = getTransformationMethod();
+        
+        // spans can change the metrics and other transformations the text itself
+        if (!(text instanceof String) || (text.length() == 0) || !TextUtils.isEmpty(getHint())
+            || ((method != null) && !(method instanceof AllCapsTransformationMethod)))
+            return null;
+        
+        if ((getMaxWidth() != Integer.MAX_VALUE) || (getMinWidth() != 0))
+            return null;
+        
+        for (Drawable drawable : getCompoundDrawables())
+            if (drawable != null)
+                return null;
+        
+        return new TextWidthCache.Key((String) text, getPaint(), method);
+    
+    }
+    
+    /**
+     * Prepares the text on the executor with the paint and all caps setting this view has now, for
+     * handing to {@link #setTextFuture(Future)} once the view is bound. The worker upper cases the
+     * text if needed and, for plain text from API 16, measures its desired width, so the view doesn't
+     * have to. The lines are still laid out on the UI thread. The text must not change while it is
+     * prepared.
+     */
+    public Future<PreparedText> getTextFuture(final CharSequence text, Executor executor) {
+    
+        final TextPaint paint = new TextPaint(getPaint());
+        final TransformationMethod method = getTransformationMethod();
+        
+        final AllCapsTransformationMethod allCaps = ((method instanceof AllCapsTransformationMethod)
+            ? (AllCapsTransformationMethod) method : null);
+        
+        // other transformations may change the text in ways the worker can't reproduce, and the width
+        // can't be handed to TextView before API 16
+        final boolean measure = ((Build.VERSION.SDK_INT >= 16) && (text instanceof String)
+            && ((method == null) || (allCaps != null)));
+        
+        PreparedTextTask task = new PreparedTextTask(text, new Callable<PreparedText>() {
+        
+            @Override
+            public PreparedText call() {
+            
+                CharSequence transformed = ((allCaps != null) ? allCaps.getTransformation(text, null) : text);
+                
+                if (!measure)
+                    return new PreparedText(text, transformed, allCaps, null, -1);
+                
+                return new PreparedText(text, transformed, allCaps, new TextWidthCache.Key((String) text, paint, allCaps),
+                    (int) Math.ceil(Layout.getDesiredWidth(transformed, paint)));
+            
+            }
+        
+        });
+        
+        executor.execute(task);
+        return task;
+    
+    }
+    
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        
+        if (mShadowAnimator != null)
+            mShadowAnimator.end();
+        
+        releaseShadowBitmaps();
+    
+    }
+    
+    @Override
+    protected void onFocusChanged(boolean focused, int direction, Rect previouslyFocusedRect) {
+        super.onFocusChanged(focused, direction, previouslyFocusedRect);
+        
+        if (focused)
+            applyEditorDecorations();
+    
+    }
+    
     @Override
     public void onInitializeAccessibilityEvent(AccessibilityEvent event) {
         super.onInitializeAccessibilityEvent(event);
@@ -248,11 +804,58 @@ public class MaterialTextView extends TextView {
     
     }
     
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+    
+        final TextWidthCache.Key key = getTextWidthKey(widthMeasureSpec);
+        
+        if (key == null) {
+        
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            return;
+        
+        }
+        
+        final int padding = (getCompoundPaddingLeft() + getCompoundPaddingRight());
+        final int width;
+        
+        if (key.equals(mPreparedWidthKey))
+            width = mPreparedWidth;
+        else
+            width = (sTextWidthCacheEnabled ? TextWidthCache.get(key) : -1);
+        
+        if (width >= 0) {
+        
+            // an exact width spares TextView measuring the desired width of the text, the layout is still built
+            int measured = Math.max((width + padding), getSuggestedMinimumWidth());
+            
+            if (MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.AT_MOST)
+                measured = Math.min(measured, MeasureSpec.getSize(widthMeasureSpec));
+            
+            super.onMeasure(MeasureSpec.makeMeasureSpec(measured, MeasureSpec.EXACTLY), heightMeasureSpec);
+            return;
+        
+        }
+        
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        
+        final int measured = getMeasuredWidth();
+        
+        // widths raised to the minimum width of this view or cut to the available width say nothing about the text
+        if (sTextWidthCacheEnabled && (measured > getSuggestedMinimumWidth())
+            && ((MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED)
+            || (measured < MeasureSpec.getSize(widthMeasureSpec))))
+            TextWidthCache.put(key, (measured - padding));
+    
+    }
+    
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
         
-        if ((mBaseHeight > 0) && (mBaseWidth > 0))
+        updateContentHitRect(w, h);
+        
+        if (mShadowLayoutApplied && (mBaseHeight > 0) && (mBaseWidth > 0))
             return;
         
         mBaseHeight = h;
@@ -267,6 +870,162 @@ public class MaterialTextView extends TextView {
         return (((mDrawableHotspotTouch != null) && mDrawableHotspotTouch.onTouch(this, event)) || super.onTouchEvent(event));
     }
     
+    /** Takes the measurements of the pending text future once it is done, and its text unless already shown. */
+    private void onTextFutureDone(Future<PreparedText> future, boolean shown) {
+    
+        if (future != mTextFuture)
+            return;
+        
+        mTextFuture = null;
+        
+        PreparedText text;
+        
+        try {
+            text = future.get();
+        } catch (Exception ignored) {
+            return;
+        }
+        
+        // lets the transformation hand back the upper cased text from the worker instead of redoing it
+        if ((text.mAllCaps != null) && (text.mAllCaps == getTransformationMethod()))
+            text.mAllCaps.remember(text.mText, text.mTransformed);
+        
+        if (!shown)
+            setText(text.mText);
+        
+        if (text.mWidthKey == null)
+            return;
+        
+        mPreparedWidth = text.mWidth;
+        mPreparedWidthKey = text.mWidthKey;
+        
+        if (sTextWidthCacheEnabled)
+            TextWidthCache.put(text.mWidthKey, text.mWidth);
+    
+    }
+    
+    /** Text prepared off the UI thread by {@link #getTextFuture(CharSequence, Executor)}. */
+    public static final class PreparedText {
+    
+        final AllCapsTransformationMethod mAllCaps;
+        
+        final CharSequence mText;
+        final CharSequence mTransformed;
+        
+        /** The desired width of the text and what it was measured for, or -1 and null if it wasn't. */
+        final int mWidth;
+        final TextWidthCache.Key mWidthKey;
+        
+        PreparedText(CharSequence text, CharSequence transformed, AllCapsTransformationMethod allCaps,
+            TextWidthCache.Key widthKey, int width) {
+        
+            mAllCaps = allCaps;
+            mText = text;
+            mTransformed = transformed;
+            mWidth = width;
+            mWidthKey = widthKey;
+        
+        }
+        
+        public CharSequence getText() {
+            return mText;
+        }
+    
+    }
+    
+    /** Hands the prepared text to the view waiting for it as soon as the worker is done. */
+    private static final class PreparedTextTask extends FutureTask<PreparedText> {
+    
+        /** The view showing the text, only touched on the UI thread. */
+        private MaterialTextView mTarget;
+        
+        /** The text as handed to the worker, shown while it is prepared. */
+        final CharSequence mText;
+        
+        PreparedTextTask(CharSequence text, Callable<PreparedText> callable) {
+            super(callable);
+            
+            mText = text;
+        
+        }
+        
+        @Override
+        protected void done() {
+        
+            sMainHandler.post(new Runnable() {
+            
+                @Override
+                public void run() {
+                
+                    if (mTarget != null)
+                        mTarget.onTextFutureDone(PreparedTextTask.this, true);
+                
+                }
+            
+            });
+        
+        }
+    
+    }
+    
+    /** Gives back the room made for a shadow layer that has been removed. */
+    private void resetShadowLayout(ViewGroup.LayoutParams params) {
+    
+        mShadowLayoutApplied = false;
+        
+        // the size without shadow is taken from the view again as long as it has no room for one
+        mMinHeight = 0;
+        mMinWidth = 0;
+        
+        beginShadowUpdate();
+        
+        try {
+        
+            super.setMinHeight(mUserSetMinHeight);
+            super.setMinWidth(mUserSetMinWidth);
+            
+            setContentInset(0);
+            super.setPadding(getPaddingLeft(), getPaddingTop(), getPaddingRight(), getPaddingBottom());
+            
+            if (!(params instanceof ViewGroup.MarginLayoutParams))
+                return;
+            
+            ViewGroup.MarginLayoutParams mlparams = (ViewGroup.MarginLayoutParams) params;
+            
+            mlparams.bottomMargin = mOriginalMarginBottom;
+            mlparams.topMargin = mOriginalMarginTop;
+            
+            super.setLayoutParams(mlparams);
+        
+        } finally {
+            commitShadowUpdate();
+        }
+    
+    }
+    
+    /** Hands pooled shadow bitmaps back so that they can be dropped once no other view uses them. */
+    private void releaseShadowBitmaps() {
+    
+        for (ShadowDrawable shadow : getShadowDrawables())
+            shadow.releaseSharedBitmap();
+    
+    }
+    
+    @Override
+    public void requestLayout() {
+    
+        // coalesced into one request when the batch is committed
+        if (mShadowUpdateDepth > 0) {
+        
+            mShadowLayoutRequested = true;
+            return;
+        
+        }
+        
+        super.requestLayout();
+    
+    }
+    
     /**
      * Sets the properties of this field to transform input to ALL CAPS
      * display. This may use a "small caps" formatting if available.
@@ -281,7 +1040,7 @@ public class MaterialTextView extends TextView {
     public void setAllCaps(boolean allCaps) {
     
         if (allCaps)
-            setTransformationMethod(new AllCapsTransformationMethod(getContext()));
+            setTransformationMethod(AllCapsTransformationMethod.getInstance(getContext()));
         else
             setTransformationMethod(null);
     
@@ -290,7 +1049,12 @@ public class MaterialTextView extends TextView {
     @Override
     public void setBackgroundColor(int color) {
     
+        releaseShadowBitmaps();
+        
+        ++mBackgroundGeneration;
+        
         mBackground = new GradientDrawable();
+        mBackgroundRes = 0;
         ((GradientDrawable) mBackground).setColor(color);
         
         if (Build.VERSION.SDK_INT < 21) {
@@ -299,12 +1063,10 @@ public class MaterialTextView extends TextView {
             shadow.setAlpha(ElevationCompat.getShadowAlphaFromColor(color));
             
             mShadow = shadow;
+            mShadowDrawables = null;
+            applyShadowOptions();
             
-            LayerDrawable layers = new LayerDrawable(new Drawable[] { mShadow, mBackground });
-            
-            //noinspection deprecation
-            super.setBackgroundDrawable(layers);
-            
+            installBackground();
             updateShadow();
         
         } else
@@ -320,8 +1082,18 @@ public class MaterialTextView extends TextView {
     public void setBackgroundDrawable(Drawable drawable) {
         super.setBackgroundDrawable(drawable);
         
+        releaseShadowBitmaps();
+        
+        ++mBackgroundGeneration;
+        
         mBackground = drawable;
+        mBackgroundRes = 0;
         mShadow = null;
+        mShadowDrawables = null;
+        mShadowLayered = false;
+        
+        if (mShadowLayoutApplied)
+            resetShadowLayout(getLayoutParams());
         
         if (mBackground instanceof LollipopDrawable)
             mDrawableHotspotTouch = new DrawableHotspotTouch((LollipopDrawable) mBackground);
@@ -333,44 +1105,112 @@ public class MaterialTextView extends TextView {
     @Override
     public void setBackgroundResource(int resid) {
     
-        mBackground = LollipopDrawablesCompat.getDrawable(getContext(), resid);
+        ++mBackgroundGeneration;
+        
+        ShadowSpec spec = null;
+        
+        if (Build.VERSION.SDK_INT < 21)
+            spec = ElevationCompat.getShadowSpec(getResources(), resid, getContext().getTheme());
+        
+        setBackgroundResource(resid, LollipopDrawablesCompat.getDrawable(getContext(), resid), spec);
+    
+    }
+    
+    /** Sets a background inflated from the resource, on top of the shadow parsed from it before API 21. */
+    private void setBackgroundResource(int resid, Drawable background, ShadowSpec spec) {
+    
+        releaseShadowBitmaps();
+        
+        mBackground = background;
+        mBackgroundRes = resid;
         
         if (Build.VERSION.SDK_INT < 21) {
         
-            String name = ElevationCompat.getResourceName(getResources(), resid);
+            mShadow = ((spec != null) ? spec.newShadow(getResources(), mRadius, mElevation,
+                getReservedElevation()) : null);
+            mShadowDrawables = null;
             
-            if (name != null) {
+            if (mShadow != null)
+                applyShadowOptions();
             
-                if (name.equals("selector"))
-                    mShadow = ElevationCompat.getShadowStatesFromResource(getResources(), resid,
-                        getContext().getTheme(), this, (StateListDrawable) mBackground);
-                else
-                    mShadow = ElevationCompat.getShadowFromResource(getResources(), resid,
-                        getContext().getTheme(), this);
+            installBackground();
+            updateShadow();
+        
+        } else
+            //noinspection deprecation;
+            super.setBackgroundDrawable(mBackground);
+        
+        if (mBackground instanceof LollipopDrawable)
+            mDrawableHotspotTouch = new DrawableHotspotTouch((LollipopDrawable) mBackground);
+        else
+            mDrawableHotspotTouch = null;
+    
+    }
+    
+    /**
+     * Parses the shadow on the executor before API 21, then inflates and sets the background on the UI
+     * thread unless another one was set meanwhile. Must be called on the UI thread.
+     */
+    public void setBackgroundResourceAsync(final int resid, Executor executor) {
+    
+        if (Build.VERSION.SDK_INT >= 21) {
+        
+            setBackgroundResource(resid);
+            return;
+        
+        }
+        
+        final Context context = getContext();
+        final int generation = ++mBackgroundGeneration;
+        
+        executor.execute(new Runnable() {
+        
+            @Override
+            public void run() {
+            
+                final ShadowSpec spec = ElevationCompat.getShadowSpec(context.getResources(), resid, context.getTheme());
                 
-                if (mShadow != null) {
+                sMainHandler.post(new Runnable() {
                 
-                    LayerDrawable layers = new LayerDrawable(new Drawable[] { mShadow, mBackground });
+                    @Override
+                    public void run() {
                     
-                    //noinspection deprecation
-                    super.setBackgroundDrawable(layers);
+                        // ripples and selectors aren't safe to inflate off the UI thread, only the shadow is parsed there
+                        if (generation == mBackgroundGeneration)
+                            setBackgroundResource(resid, LollipopDrawablesCompat.getDrawable(context, resid), spec);
+                    
+                    }
                 
-                } else
-                    //noinspection deprecation
-                    super.setBackgroundDrawable(mBackground);
+                });
             
             }
-            
-            updateShadow();
         
-        } else
-            //noinspection deprecation;
-            super.setBackgroundDrawable(mBackground);
+        });
+    
+    }
+    
+    /** Records the top and bottom inset of the content layer that touches outside of are dropped. */
+    private void setContentInset(int inset) {
+    
+        if (mContentInset == inset)
+            return;
+        
+        mContentInset = inset;
+        updateContentHitRect(getWidth(), getHeight());
+    
+    }
+    
+    /**
+     * Grows the area touches are accepted in by the given number of pixels into the shadow margin,
+     * so small views keep a usable touch target. Touches outside of the view are still not received.
+     */
+    public void setContentTouchSlop(int slop) {
+    
+        if (mContentTouchSlop == slop)
+            return;
         
-        if (mBackground instanceof LollipopDrawable)
-            mDrawableHotspotTouch = new DrawableHotspotTouch((LollipopDrawable) mBackground);
-        else
-            mDrawableHotspotTouch = null;
+        mContentTouchSlop = slop;
+        updateContentHitRect(getWidth(), getHeight());
     
     }
     
@@ -385,13 +1225,56 @@ public class MaterialTextView extends TextView {
             
             }
             
+            if (mShadowAnimator != null)
+                mShadowAnimator.end();
+            
             mElevation = elevation;
+            mShadowAnimating = false;
+            mShadowElevation = elevation;
+            
             updateShadow();
+            applyStateElevation(false);
         
         }
     
     }
     
+    /** Sets the elevation the view animates to while disabled, or a negative value to keep the elevation. */
+    public void setDisabledElevation(float disabledElevation) {
+    
+        if (mDisabledElevation == disabledElevation)
+            return;
+        
+        mDisabledElevation = disabledElevation;
+        updateStateElevations();
+    
+    }
+    
+    /** Sets the elevation the view animates to while focused, or a negative value to keep the elevation. */
+    public void setFocusedElevation(float focusedElevation) {
+    
+        if (mFocusedElevation == focusedElevation)
+            return;
+        
+        mFocusedElevation = focusedElevation;
+        updateStateElevations();
+    
+    }
+    
+    /**
+     * Reserves room for shadows up to the given elevation before API 21, so that the shadow can later be
+     * raised with {@link #setShadowElevation(float)} without any layout pass.
+     */
+    public void setMaxElevation(float maxElevation) {
+    
+        if (mMaxElevation == maxElevation)
+            return;
+        
+        mMaxElevation = maxElevation;
+        updateShadow();
+    
+    }
+    
     @Override
     public void setLayoutParams(ViewGroup.LayoutParams params) {
     
@@ -404,135 +1287,216 @@ public class MaterialTextView extends TextView {
         
         }
         
-        super.setLayoutParams(params);
+        beginShadowUpdate();
         
-        if (mShadow == null)
-            return;
+        try {
         
-        int shadowHeight = 0, shadowWidth = 0;
+            super.setLayoutParams(params);
+            updateShadow(params, true);
         
-        if (mShadow instanceof StateListDrawable) {
+        } finally {
+            commitShadowUpdate();
+        }
+    
+    }
+    
+    @Override
+    public void setMinimumHeight(int minHeight) {
+    
+        mUserSetMinHeight = minHeight;
+        super.setMinimumHeight(minHeight);
+    
+    }
+    
+    @Override
+    public void setMinimumWidth(int minWidth) {
+    
+        mUserSetMinWidth = minWidth;
+        super.setMinimumWidth(minWidth);
+    
+    }
+    
+    public void setPadding(int left, int top, int right, int bottom) {
+    
+        if (mOriginalPaddingBottom != bottom)
+            mOriginalPaddingBottom = bottom;
         
-            ShadowDrawable shadow;
-            StateListDrawable states = (StateListDrawable) mShadow;
-            
-            int count = states.getStateCount();
-            
-            for (int i = 0; i < count; ++i) {
-            
-                shadow = (ShadowDrawable) states.getStateDrawable(i);
-                shadow.setShadowSize(mElevation, mElevation);
-                
-                shadowHeight = Math.max(shadowHeight, (int) Math.ceil(shadow.getMinHeight()));
-                shadowWidth = Math.max(shadowWidth, (int) Math.ceil(shadow.getMinWidth()));
-            
-            }
+        if (mOriginalPaddingLeft != left)
+            mOriginalPaddingLeft = left;
         
-        } else if (mShadow instanceof InsetDrawable) {
+        if (mOriginalPaddingRight != right)
+            mOriginalPaddingRight = right;
         
-            ShadowDrawable shadow = (ShadowDrawable) ((InsetDrawable) mShadow).getDrawable();
-            shadow.setShadowSize(mElevation, mElevation);
-            
-            shadowHeight = (int) Math.ceil(shadow.getMinHeight());
-            shadowWidth = (int) Math.ceil(shadow.getMinWidth());
+        if (mOriginalPaddingTop != top)
+            mOriginalPaddingTop = top;
         
-        } else {
+        // only a shadow layer that has made room for itself moves the content, flat views and shadows
+        // drawn outside the bounds leave the padding alone
+        if (mShadowLayoutApplied) {
         
-            ShadowDrawable shadow = (ShadowDrawable) mShadow;
-            shadow.setShadowSize(mElevation, mElevation);
+            int contentHeight = ((mMinHeight / 2) - (mBaseHeight / 2));
             
-            shadowHeight = (int) Math.ceil(shadow.getMinHeight());
-            shadowWidth = (int) Math.ceil(shadow.getMinWidth());
+            bottom += contentHeight;
+            top += contentHeight;
         
         }
         
-        if ((mBaseHeight == 0) || (mBaseWidth == 0))
+        super.setPadding(left, top, right, bottom);
+    
+    }
+    
+    /**
+     * Sets the elevation the view animates to while pressed, or a negative value to keep the elevation.
+     * Room for the raised shadow is reserved up front, so the animation never triggers a layout pass.
+     */
+    public void setPressedElevation(float pressedElevation) {
+    
+        if (mPressedElevation == pressedElevation)
             return;
         
-        mBaseHeight = getMeasuredHeight();
-        mBaseWidth = getMeasuredWidth();
-        
-        mMinHeight = Math.max(mBaseHeight, shadowHeight);
-        
-        if (mMinHeight < (mBaseHeight + (shadowHeight / 2)))
-            mMinHeight += (shadowHeight / 2);
-        
-        if (mMinHeight <= mUserSetMinHeight)
-            mMinHeight = mUserSetMinHeight;
-        
-        super.setMinHeight(mMinHeight);
+        mPressedElevation = pressedElevation;
+        updateStateElevations();
+    
+    }
+    
+    /**
+     * Sets the elevation the shadow is drawn at without changing the room reserved for it, which makes
+     * it cheap to animate, e.g. with an ObjectAnimator on "shadowElevation". Before API 21 the shadow
+     * is clamped to the larger of the elevation, max elevation and pressed elevation.
+     */
+    public void setShadowElevation(float elevation) {
+    
+        // an animation the view doesn't drive itself is taken to run until it is back at the elevation
+        setShadowElevation(elevation, (elevation != mElevation));
+    
+    }
+    
+    private void setShadowElevation(float elevation, boolean animating) {
+    
+        if (Build.VERSION.SDK_INT >= 21) {
         
-        mMinWidth = Math.max(mBaseWidth, shadowWidth);
+            setTranslationZ(elevation - super.getElevation());
+            return;
         
-        if (mMinWidth < (mBaseWidth + (shadowWidth / 2)))
-            mMinWidth += (shadowWidth / 2);
+        }
         
-        if (mMinWidth <= mUserSetMinWidth)
-            mMinWidth = mUserSetMinWidth;
+        if ((mShadowElevation == elevation) && (mShadowAnimating == animating))
+            return;
         
-        super.setMinWidth(mMinWidth);
+        mShadowAnimating = animating;
+        mShadowElevation = elevation;
         
-        int contentHeight = ((mMinHeight / 2) - (mBaseHeight / 2));
+        final float reserved = getReservedElevation();
         
-        LayerDrawable layers = (LayerDrawable) super.getBackground();
-        layers.setLayerInset(1, 0, contentHeight, 0, contentHeight);
+        for (ShadowDrawable shadow : getShadowDrawables()) {
         
-        super.setPadding(getPaddingLeft(), (getPaddingTop() + contentHeight),
-            getPaddingRight(), (getPaddingBottom() + contentHeight));
+            shadow.setAnimating(animating);
+            shadow.setShadowSize(elevation, reserved);
         
-        if (!(params instanceof ViewGroup.MarginLayoutParams))
+        }
+    
+    }
+    
+    /**
+     * Sets whether the pre-lollipop shadow is drawn outside the view bounds. The view then keeps its
+     * own size, padding and margins and elevation changes never need a layout pass, but the parent
+     * has to be set to not clip its children for the shadow to show.
+     */
+    public void setShadowOutsideBounds(boolean outsideBounds) {
+    
+        if (mShadowOutsideBounds == outsideBounds)
             return;
         
-        ViewGroup.MarginLayoutParams mlparams = (ViewGroup.MarginLayoutParams) params;
+        mShadowOutsideBounds = outsideBounds;
         
-        mlparams.bottomMargin = (mOriginalMarginBottom - contentHeight);
-        mlparams.topMargin = (mOriginalMarginTop - contentHeight);
+        updateShadow();
+        invalidate();
+    
+    }
+    
+    /**
+     * Sets whether the pre-lollipop shadow skips the area underneath the content. Only enable this
+     * for backgrounds that cover their whole bounds, otherwise the missing interior shows through.
+     */
+    public void setShadowRingOnly(boolean ringOnly) {
+    
+        mShadowRingOnly = ringOnly;
+        mShadowRingOnlySet = true;
         
-        super.setLayoutParams(mlparams);
+        applyShadowOptions();
     
     }
     
-    @Override
-    public void setMinimumHeight(int minHeight) {
+    /**
+     * Sets how the shadow is drawn on pre-lollipop devices, either {@link #SHADOW_RENDER_MODE_GRADIENT},
+     * {@link #SHADOW_RENDER_MODE_NINE_PATCH}, {@link #SHADOW_RENDER_MODE_PATH} or
+     * {@link #SHADOW_RENDER_MODE_SHARED_BITMAP}. The nine-patch mode trades a small amount of shared
+     * memory for far cheaper draws, which helps screens with many elevated views.
+     */
+    public void setShadowRenderMode(int renderMode) {
     
-        mUserSetMinHeight = minHeight;
-        super.setMinimumHeight(minHeight);
+        if (mShadowRenderMode == renderMode)
+            return;
+        
+        mShadowRenderMode = renderMode;
+        applyShadowOptions();
     
     }
     
+    /**
+     * Lets views share the desired width of their text across the process, so that TextView doesn't
+     * measure labels repeated in a list, like "Reply" or "Share", again for every row before laying
+     * them out. The lines are still laid out by every view. Only plain text without hint, compound
+     * drawables or min and max width is cached, from API 16. Off by default.
+     */
+    public static void setTextWidthCacheEnabled(boolean enabled) {
+        sTextWidthCacheEnabled = enabled;
+    }
+    
     @Override
-    public void setMinimumWidth(int minWidth) {
+    public void setText(CharSequence text, BufferType type) {
     
-        mUserSetMinWidth = minWidth;
-        super.setMinimumWidth(minWidth);
+        // text set directly wins over text still being precomputed
+        mTextFuture = null;
+        super.setText(text, type);
     
     }
     
-    public void setPadding(int left, int top, int right, int bottom) {
+    /**
+     * Sets the text from {@link #getTextFuture(CharSequence, Executor)} right away. The UI thread never
+     * waits for the executor: until it is done the text is transformed and measured here, after that
+     * the prepared upper casing and width are used. Setting text directly in the meantime drops the
+     * future. Must be called on the UI thread.
+     */
+    public void setTextFuture(Future<PreparedText> future) {
     
-        if (mOriginalPaddingBottom != bottom)
-            mOriginalPaddingBottom = bottom;
+        if (future.isDone()) {
         
-        if (mOriginalPaddingLeft != left)
-            mOriginalPaddingLeft = left;
-        
-        if (mOriginalPaddingRight != right)
-            mOriginalPaddingRight = right;
+            mTextFuture = future;
+            onTextFutureDone(future, false);
+            return;
         
-        if (mOriginalPaddingTop != top)
-            mOriginalPaddingTop = top;
+        }
         
-        super.setPadding(left, top, right, bottom);
+        if (!(future instanceof PreparedTextTask))
+            throw new IllegalArgumentException("Only futures from getTextFuture() can be set before they are done");
         
-        if (mShadow == null)
-            return;
+        final PreparedTextTask task = (PreparedTextTask) future;
         
-        int contentHeight = ((mMinHeight / 2) - (mBaseHeight / 2));
+        // a recycled view must not show the text of its previous item while the worker runs
+        setText(task.mText);
         
-        bottom += contentHeight;
-        top += contentHeight;
+        mTextFuture = task;
+        task.mTarget = this;
+    
+    }
+    
+    @Override
+    public void setTextIsSelectable(boolean selectable) {
+        super.setTextIsSelectable(selectable);
         
-        super.setPadding(left, top, right, bottom);
+        if (selectable)
+            applyEditorDecorations();
     
     }
     
@@ -558,138 +1522,236 @@ public class MaterialTextView extends TextView {
     
     }
     
+    /** Writes a private field of the Editor, or of the TextView itself on devices that predate the Editor. */
+    private void setEditorField(String name, Object value) {
+    
+        if (mEditor == null)
+            TextViewFields.set(TextView.class, this, name, value);
+        else
+            TextViewFields.set(mEditor.getClass(), mEditor, name, value);
+    
+    }
+    
     private void setTextSelectHandle(String field_id, int resid) {
     
         try {
         
-            Drawable drawable = LollipopDrawablesCompat.getDrawable(getContext(), resid);
-            
-            if (mEditor == null) {
-            
-                final Field field = TextView.class.getDeclaredField(field_id);
-                field.setAccessible(true);
-                field.set(this, drawable);
-            
-            } else {
-            
-                final Field field = mEditor.getClass().getDeclaredField(field_id);
-                field.setAccessible(true);
-                field.set(mEditor, drawable);
-            
-            }
+            Drawable drawable = getEditorDrawable(resid);
+            setEditorField(field_id, drawable);
         
         } catch (Exception ignored) {}
     
     }
     
     private void updateShadow() {
+        updateShadow(getLayoutParams(), false);
+    }
     
-        if (mShadow == null)
-            return;
+    /**
+     * Resizes the shadows for the current elevation and rewrites the min size, padding, content inset
+     * and margins to make room for them, all within a single layout request.
+     */
+    private void updateShadow(ViewGroup.LayoutParams params, boolean remeasure) {
+    
+        final float reserved = getReservedElevation();
         
-        int shadowHeight = 0, shadowWidth = 0;
+        // the shadow layer comes and goes with the elevation so that flat views pay nothing for it
+        if ((mShadow != null) && (wantsShadowLayer() != mShadowLayered))
+            installBackground();
         
-        if (mShadow instanceof StateListDrawable) {
+        if (!mShadowLayered) {
         
-            ShadowDrawable shadow;
-            StateListDrawable states = (StateListDrawable) mShadow;
-            
-            int count = states.getStateCount();
-            
-            for (int i = 0; i < count; ++i) {
-            
-                shadow = (ShadowDrawable) states.getStateDrawable(i);
-                shadow.setShadowSize(mElevation, mElevation);
-                
-                shadowHeight = Math.max(shadowHeight, (int) Math.ceil(shadow.getMinHeight()));
-                shadowWidth = Math.max(shadowWidth, (int) Math.ceil(shadow.getMinWidth()));
+            if (mShadowLayoutApplied)
+                resetShadowLayout(params);
             
-            }
+            // shadows drawn outside the bounds still need their size, just no room in the layout
+            if (!mShadowOutsideBounds || (mShadow == null))
+                return;
         
-        } else if (mShadow instanceof InsetDrawable) {
+        }
         
-            ShadowDrawable shadow = (ShadowDrawable) ((InsetDrawable) mShadow).getDrawable();
-            shadow.setShadowSize(mElevation, mElevation);
-            
-            shadowHeight = (int) Math.ceil(shadow.getMinHeight());
-            shadowWidth = (int) Math.ceil(shadow.getMinWidth());
+        int shadowHeight = 0, shadowWidth = 0;
         
-        } else {
+        for (ShadowDrawable shadow : getShadowDrawables()) {
         
-            ShadowDrawable shadow = (ShadowDrawable) mShadow;
-            shadow.setShadowSize(mElevation, mElevation);
+            // shaders for every size the shadow can be animated through are looked up ahead of time
+            if (reserved > mElevation)
+                shadow.prepareShadowSizes(reserved);
             
-            shadowHeight = (int) Math.ceil(shadow.getMinHeight());
-            shadowWidth = (int) Math.ceil(shadow.getMinWidth());
+            shadow.setAnimating(mShadowAnimating);
+            shadow.setShadowSize(mShadowElevation, reserved);
+            
+            shadowHeight = Math.max(shadowHeight, (int) Math.ceil(shadow.getMinHeight()));
+            shadowWidth = Math.max(shadowWidth, (int) Math.ceil(shadow.getMinWidth()));
         
         }
         
+        if (!mShadowLayered)
+            return;
+        
         if ((mBaseHeight == 0) || (mBaseWidth == 0))
             return;
         
-        mMinHeight = Math.max(mBaseHeight, shadowHeight);
+        if (remeasure) {
         
-        if (mMinHeight < (mBaseHeight + (shadowHeight / 2)))
-            mMinHeight += (shadowHeight / 2);
+            mBaseHeight = getMeasuredHeight();
+            mBaseWidth = getMeasuredWidth();
         
-        if (mMinHeight <= mUserSetMinHeight)
-            mMinHeight = mUserSetMinHeight;
+        }
         
-        super.setMinHeight(mMinHeight);
+        beginShadowUpdate();
         
-        mMinWidth = Math.max(mBaseWidth, shadowWidth);
+        try {
         
-        if (mMinWidth < (mBaseWidth + (shadowWidth / 2)))
-            mMinWidth += (shadowWidth / 2);
+            mMinHeight = Math.max(mBaseHeight, shadowHeight);
+            
+            if (mMinHeight < (mBaseHeight + (shadowHeight / 2)))
+                mMinHeight += (shadowHeight / 2);
+            
+            if (mMinHeight <= mUserSetMinHeight)
+                mMinHeight = mUserSetMinHeight;
+            
+            super.setMinHeight(mMinHeight);
+            
+            mMinWidth = Math.max(mBaseWidth, shadowWidth);
+            
+            if (mMinWidth < (mBaseWidth + (shadowWidth / 2)))
+                mMinWidth += (shadowWidth / 2);
+            
+            if (mMinWidth <= mUserSetMinWidth)
+                mMinWidth = mUserSetMinWidth;
+            
+            super.setMinWidth(mMinWidth);
+            
+            int contentHeight = ((mMinHeight / 2) - (mBaseHeight / 2));
+            
+            LayerDrawable layers = (LayerDrawable) super.getBackground();
+            layers.setLayerInset(1, 0, contentHeight, 0, contentHeight);
+            setContentInset(contentHeight);
+            
+            super.setPadding(getPaddingLeft(), (getPaddingTop() + contentHeight),
+                getPaddingRight(), (getPaddingBottom() + contentHeight));
+            
+            mShadowLayoutApplied = true;
+            
+            if (!(params instanceof ViewGroup.MarginLayoutParams))
+                return;
+            
+            ViewGroup.MarginLayoutParams mlparams = (ViewGroup.MarginLayoutParams) params;
+            
+            mlparams.bottomMargin = (mOriginalMarginBottom - contentHeight);
+            mlparams.topMargin = (mOriginalMarginTop - contentHeight);
+            
+            super.setLayoutParams(mlparams);
         
-        if (mMinWidth <= mUserSetMinWidth)
-            mMinWidth = mUserSetMinWidth;
+        } finally {
+            commitShadowUpdate();
+        }
+    
+    }
+    
+    /**
+     * Animates the shadow elevation on the animation timeline. Frames only move the drawn shadow size,
+     * they neither allocate nor request layout.
+     */
+    private class ShadowElevationAnimator implements Runnable {
+    
+        private static final int DURATION = 100;
+        private static final int FRAME_DELAY = 10;
         
-        super.setMinWidth(mMinWidth);
+        private final Interpolator mInterpolator = new DecelerateInterpolator();
         
-        int contentHeight = ((mMinHeight / 2) - (mBaseHeight / 2));
+        private boolean mRunning;
+        private float mFrom, mTo;
+        private long mStartTime;
         
-        LayerDrawable layers = (LayerDrawable) super.getBackground();
-        layers.setLayerInset(1, 0, contentHeight, 0, contentHeight);
+        void animateTo(float elevation) {
         
-        super.setPadding(getPaddingLeft(), (getPaddingTop() + contentHeight),
-            getPaddingRight(), (getPaddingBottom() + contentHeight));
+            mFrom = getShadowElevation();
+            mStartTime = AnimationUtils.currentAnimationTimeMillis();
+            mTo = elevation;
+            
+            if (mRunning)
+                return;
+            
+            mRunning = true;
+            postFrame();
         
-        if (!(getLayoutParams() instanceof ViewGroup.MarginLayoutParams))
-            return;
+        }
+        
+        boolean isRunning() {
+            return mRunning;
+        }
+        
+        /** Stops the animation and jumps to the elevation it was heading for. */
+        void end() {
+        
+            if (!mRunning)
+                return;
+            
+            mRunning = false;
+            removeCallbacks(this);
+            
+            setShadowElevation(mTo, false);
         
-        ViewGroup.MarginLayoutParams mlparams = (ViewGroup.MarginLayoutParams) getLayoutParams();
+        }
+        
+        private void postFrame() {
+        
+            if (Build.VERSION.SDK_INT >= 16)
+                postOnAnimation(this);
+            else
+                postDelayed(this, FRAME_DELAY);
+        
+        }
+        
+        @Override
+        public void run() {
         
-        mlparams.bottomMargin = (mOriginalMarginBottom - contentHeight);
-        mlparams.topMargin = (mOriginalMarginTop - contentHeight);
+            if (!mRunning)
+                return;
+            
+            long elapsed = (AnimationUtils.currentAnimationTimeMillis() - mStartTime);
+            float fraction = Math.min(1f, (elapsed / (float) DURATION));
+            
+            // the last frame settles the shadow back on its render mode, even if a state holds it raised
+            mRunning = (fraction < 1f);
+            setShadowElevation((mFrom + (mTo - mFrom) * mInterpolator.getInterpolation(fraction)), mRunning);
+            
+            if (mRunning)
+                postFrame();
         
-        super.setLayoutParams(mlparams);
+        }
+    
+    }
+    
+    private void updateContentHitRect(int width, int height) {
+        mContentHitRect.set(-mContentTouchSlop, (mContentInset - mContentTouchSlop), (width + mContentTouchSlop),
+            (height - mContentInset + mContentTouchSlop));
+    }
     
+    /** Returns whether the background should be stacked on the shadow layer. */
+    private boolean wantsShadowLayer() {
+        return ((mShadow != null) && !mShadowOutsideBounds && (getReservedElevation() > 0));
     }
     
-    /** Transforms source text into an ALL CAPS string, locale-aware. */
-    private class AllCapsTransformationMethod implements TransformationMethod {
+    private void updateStateElevations() {
     
-        private Locale mLocale;
+        mHasStateElevations = ((mDisabledElevation >= 0) || (mFocusedElevation >= 0) || (mPressedElevation >= 0));
         
-        AllCapsTransformationMethod(Context context) {
+        updateShadow();
         
-            if (Build.VERSION.SDK_INT >= 24)
-                mLocale = context.getResources().getConfiguration().getLocales().get(0);
-            else
-                //noinspection deprecation
-                mLocale = context.getResources().getConfiguration().locale;
+        if (mHasStateElevations) {
         
-        }
+            applyStateElevation(false);
+            return;
         
-        @Override
-        public CharSequence getTransformation(CharSequence source, View view) {
-            return ((source != null) ? source.toString().toUpperCase(mLocale) : null);
         }
         
-        @Override
-        public void onFocusChanged(View view, CharSequence sourceText, boolean focused, int direction,
-            Rect previouslyFocusedRect) {}
+        if (mShadowAnimator != null)
+            mShadowAnimator.end();
+        
+        setShadowElevation(((Build.VERSION.SDK_INT >= 21) ? super.getElevation() : mElevation), false);
     
     }
 
@@ -0,0 +1,190 @@
+package robertapengelly.support.widget;
+
+import  android.content.Context;
+import  android.content.res.TypedArray;
+import  android.os.Build;
+import  android.util.AttributeSet;
+
+import  java.util.Arrays;
+
+import  robertapengelly.support.materialtextview.R;
+
+/**
+ * The MaterialTextView attributes of a style, resolved once. Views inflated with the same style,
+ * default style attribute and theme share a snapshot instead of walking the TypedArray again, as
+ * long as the layout doesn't set any of these attributes on the view itself.
+ */
+final class MaterialTextViewAttributes {
+
+    private static final int MAX_CACHED_SNAPSHOTS = 32;
+    
+    private static final ThemeCache<MaterialTextViewAttributes> sSnapshots = new ThemeCache<>(MAX_CACHED_SNAPSHOTS);
+    
+    final int backgroundColor;
+    final int backgroundRes;
+    final int compatBackgroundRes;
+    final int cursorDrawableRes;
+    final int minHeight;
+    final int minWidth;
+    final int paddingBottom;
+    final int paddingLeft;
+    final int paddingRight;
+    final int paddingTop;
+    final int selectHandleCenterRes;
+    final int selectHandleLeftRes;
+    final int selectHandleRightRes;
+    final int shadowRenderMode;
+    
+    /** The all caps setting of the view and of its text appearance, or null if not set. */
+    final Boolean allCaps;
+    final Boolean appearanceAllCaps;
+    
+    final Boolean shadowRingOnly;
+    
+    final boolean shadowOutsideBounds;
+    
+    // NaN if not set
+    final float disabledElevation;
+    final float elevation;
+    final float focusedElevation;
+    final float maxElevation;
+    final float pressedElevation;
+    
+    /** Snapshots are shared by every view of the style, so everything is resolved here and never changed. */
+    private MaterialTextViewAttributes(Context context, AttributeSet attrs, int defStyleAttr) {
+    
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.MaterialTextView, defStyleAttr, 0);
+        
+        shadowRenderMode = a.getInt(R.styleable.MaterialTextView_shadowRenderMode, ShadowDrawable.RENDER_MODE_GRADIENT);
+        shadowOutsideBounds = a.getBoolean(R.styleable.MaterialTextView_shadowOutsideBounds, false);
+        shadowRingOnly = getBoolean(a, R.styleable.MaterialTextView_shadowRingOnly);
+        
+        Boolean appearanceAllCaps = null;
+        int ap = a.getResourceId(R.styleable.MaterialTextView_android_textAppearance, -1);
+        
+        if (ap != -1) {
+        
+            TypedArray appearance = context.obtainStyledAttributes(ap, R.styleable.TextAppearance);
+            
+            if (appearance != null) {
+            
+                appearanceAllCaps = getBoolean(appearance, R.styleable.TextAppearance_textAllCaps);
+                appearance.recycle();
+            
+            }
+        
+        }
+        
+        this.appearanceAllCaps = appearanceAllCaps;
+        
+        int backgroundColor = 0, backgroundRes = 0, compatBackgroundRes = 0, cursorDrawableRes = 0;
+        int selectHandleCenterRes = 0, selectHandleLeftRes = 0, selectHandleRightRes = 0;
+        
+        int count = a.getIndexCount();
+        
+        for (int i = 0; i < count; ++i) {
+        
+            int attr = a.getIndex(i);
+            
+            if (attr == R.styleable.MaterialTextView_android_background) {
+            
+                backgroundRes = a.getResourceId(attr, 0);
+                
+                if (backgroundRes == 0)
+                    backgroundColor = a.getColor(attr, 0);
+            
+            } else if (attr == R.styleable.MaterialTextView_android_textCursorDrawable) {
+            
+                // Setting the text cursor isn't available on pre-honeycomb devices so we can
+                // just continue the loop.
+                if (Build.VERSION.SDK_INT < 12)
+                    continue;
+                
+                cursorDrawableRes = a.getResourceId(attr, 0);
+            
+            } else if (attr == R.styleable.MaterialTextView_android_textSelectHandleLeft)
+                selectHandleLeftRes = a.getResourceId(attr, 0);
+            else if (attr == R.styleable.MaterialTextView_android_textSelectHandle)
+                selectHandleCenterRes = a.getResourceId(attr, 0);
+            else if (attr == R.styleable.MaterialTextView_android_textSelectHandleRight)
+                selectHandleRightRes = a.getResourceId(attr, 0);
+            else if (attr == R.styleable.MaterialTextView_background)
+                compatBackgroundRes = a.getResourceId(attr, 0);
+        
+        }
+        
+        this.backgroundColor = backgroundColor;
+        this.backgroundRes = backgroundRes;
+        this.compatBackgroundRes = compatBackgroundRes;
+        this.cursorDrawableRes = cursorDrawableRes;
+        this.selectHandleCenterRes = selectHandleCenterRes;
+        this.selectHandleLeftRes = selectHandleLeftRes;
+        this.selectHandleRightRes = selectHandleRightRes;
+        
+        elevation = getDimension(a, R.styleable.MaterialTextView_elevation);
+        maxElevation = getDimension(a, R.styleable.MaterialTextView_maxElevation);
+        disabledElevation = getDimension(a, R.styleable.MaterialTextView_disabledElevation);
+        focusedElevation = getDimension(a, R.styleable.MaterialTextView_focusedElevation);
+        pressedElevation = getDimension(a, R.styleable.MaterialTextView_pressedElevation);
+        
+        allCaps = getBoolean(a, R.styleable.MaterialTextView_textAllCaps);
+        
+        int padding = a.getDimensionPixelOffset(R.styleable.MaterialTextView_android_padding, 0);
+        paddingBottom = a.getDimensionPixelOffset(R.styleable.MaterialTextView_android_paddingBottom, padding);
+        paddingLeft = a.getDimensionPixelOffset(R.styleable.MaterialTextView_android_paddingLeft, padding);
+        paddingRight = a.getDimensionPixelOffset(R.styleable.MaterialTextView_android_paddingRight, padding);
+        paddingTop = a.getDimensionPixelOffset(R.styleable.MaterialTextView_android_paddingTop, padding);
+        
+        minHeight = a.getDimensionPixelSize(R.styleable.MaterialTextView_android_minHeight, 0);
+        minWidth = a.getDimensionPixelSize(R.styleable.MaterialTextView_android_minWidth, 0);
+        
+        a.recycle();
+    
+    }
+    
+    private static Boolean getBoolean(TypedArray a, int index) {
+        return (a.hasValue(index) ? Boolean.valueOf(a.getBoolean(index, false)) : null);
+    }
+    
+    private static float getDimension(TypedArray a, int index) {
+        return (a.hasValue(index) ? a.getDimension(index, 0) : Float.NaN);
+    }
+    
+    /** Returns whether the layout sets none of the attributes on the view, so the style decides them all. */
+    private static boolean isStyledOnly(AttributeSet attrs) {
+    
+        if (attrs == null)
+            return true;
+        
+        final int count = attrs.getAttributeCount();
+        
+        for (int i = 0; i < count; ++i)
+            if (Arrays.binarySearch(R.styleable.MaterialTextView, attrs.getAttributeNameResource(i)) >= 0)
+                return false;
+        
+        return true;
+    
+    }
+    
+    static MaterialTextViewAttributes obtain(Context context, AttributeSet attrs, int defStyleAttr) {
+    
+        if (!isStyledOnly(attrs))
+            return new MaterialTextViewAttributes(context, attrs, defStyleAttr);
+        
+        final int style = ((attrs != null) ? attrs.getStyleAttribute() : 0);
+        final long key = (((long) style << 32) | (defStyleAttr & 0xFFFFFFFFL));
+        
+        MaterialTextViewAttributes snapshot = sSnapshots.get(context.getResources(), context.getTheme(), key);
+        
+        if (snapshot == null) {
+        
+            snapshot = new MaterialTextViewAttributes(context, attrs, defStyleAttr);
+            sSnapshots.put(context.getResources(), context.getTheme(), key, snapshot);
+        
+        }
+        
+        return snapshot;
+    
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,234 @@
+package robertapengelly.support.widget;
+
+import  android.content.ComponentCallbacks2;
+import  android.content.Context;
+import  android.os.Build;
+import  android.os.Handler;
+import  android.os.HandlerThread;
+import  android.os.Looper;
+import  android.os.MessageQueue;
+import  android.os.Process;
+
+import  java.util.ArrayList;
+
+/**
+ * Builds MaterialTextViews ahead of time so that binding a new view type doesn't pay for attribute
+ * resolution, reflection, drawable inflation and shadow parsing. Every view is created with the
+ * pool's context, so its theme decides the style, together with the default style attribute given
+ * to the pool.
+ *
+ * The style's attributes and the shadows of its backgrounds are resolved on a background thread,
+ * which only reads resources and fills the caches the views look them up in. The views themselves
+ * are built on the UI thread while it is idle: before API 24 a view built on another thread queues
+ * whatever it posts on that thread, where it never runs. The pool must only be used from the UI
+ * thread.
+ *
+ * Views are only ever built by the pool and handed out by {@link #acquire()}, they are not taken
+ * back. Pooled views hold on to the context, so call {@link #trimToSize(int)} or forward
+ * {@link #onTrimMemory(int)} when memory gets tight.
+ */
+public final class MaterialTextViewPool {
+
+    private static HandlerThread sThread;
+    
+    private static Handler sHandler;
+    
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    
+    private final int mDefStyleAttr;
+    
+    private int mMaxSize;
+    private int mPending = 0;
+    
+    /** Whether the style has been resolved on the pool thread and whether that has been asked for. */
+    private boolean mStylePrepared = false;
+    private boolean mStyleRequested = false;
+    
+    /** Whether mBuild is waiting for the UI thread to become idle. */
+    private boolean mBuildScheduled = false;
+    
+    private final ArrayList<MaterialTextView> mViews = new ArrayList<>();
+    
+    private final Context mContext;
+    
+    /** Builds one of the views that were asked for each time the UI thread runs out of work. */
+    private final MessageQueue.IdleHandler mBuild = new MessageQueue.IdleHandler() {
+    
+        @Override
+        public boolean queueIdle() {
+        
+            if (mPending == 0) {
+            
+                mBuildScheduled = false;
+                return false;
+            
+            }
+            
+            MaterialTextView view = new MaterialTextView(mContext, null, mDefStyleAttr);
+            
+            --mPending;
+            
+            if (mViews.size() < mMaxSize)
+                mViews.add(view);
+            
+            mBuildScheduled = (mPending > 0);
+            return mBuildScheduled;
+        
+        }
+    
+    };
+    
+    /** Resolves what the views look up in the process wide caches, without building any view. */
+    private final Runnable mPrepareStyle = new Runnable() {
+    
+        @Override
+        public void run() {
+        
+            MaterialTextViewAttributes a = MaterialTextViewAttributes.obtain(mContext, null, mDefStyleAttr);
+            
+            if (Build.VERSION.SDK_INT < 21) {
+            
+                if (a.backgroundRes != 0)
+                    ElevationCompat.getShadowSpec(mContext.getResources(), a.backgroundRes, mContext.getTheme());
+                
+                if (a.compatBackgroundRes != 0)
+                    ElevationCompat.getShadowSpec(mContext.getResources(), a.compatBackgroundRes, mContext.getTheme());
+            
+            }
+            
+            sMainHandler.post(new Runnable() {
+            
+                @Override
+                public void run() {
+                
+                    mStylePrepared = true;
+                    scheduleBuild();
+                
+                }
+            
+            });
+        
+        }
+    
+    };
+    
+    public MaterialTextViewPool(Context context, int maxSize) {
+        this(context, android.R.attr.textViewStyle, maxSize);
+    }
+    
+    public MaterialTextViewPool(Context context, int defStyleAttr, int maxSize) {
+    
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize must not be negative");
+        
+        mContext = context;
+        mDefStyleAttr = defStyleAttr;
+        mMaxSize = maxSize;
+    
+    }
+    
+    /** Returns a prefetched view, or builds one right away if none is ready. */
+    public MaterialTextView acquire() {
+    
+        if (!mViews.isEmpty())
+            return mViews.remove(mViews.size() - 1);
+        
+        return new MaterialTextView(mContext, null, mDefStyleAttr);
+    
+    }
+    
+    private static synchronized Handler getHandler() {
+    
+        if (sHandler == null) {
+        
+            sThread = new HandlerThread("MaterialTextViewPool", Process.THREAD_PRIORITY_BACKGROUND);
+            sThread.start();
+            
+            sHandler = new Handler(sThread.getLooper());
+        
+        }
+        
+        return sHandler;
+    
+    }
+    
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+    
+    /** Returns how many views are ready to be handed out. */
+    public int getSize() {
+        return mViews.size();
+    }
+    
+    /** Drops pooled views according to the level passed to {@link ComponentCallbacks2#onTrimMemory(int)}. */
+    public void onTrimMemory(int level) {
+    
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+            trimToSize(0);
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            trimToSize(getSize() / 2);
+    
+    }
+    
+    /**
+     * Builds views while the UI thread is idle until the given number is ready, never more than the
+     * max size. The first call resolves the style on the pool thread before any view is built.
+     */
+    public void prefetch(int count) {
+    
+        final int wanted = (Math.min(count, mMaxSize) - mViews.size() - mPending);
+        
+        if (wanted <= 0)
+            return;
+        
+        mPending += wanted;
+        
+        if (mStylePrepared)
+            scheduleBuild();
+        else if (!mStyleRequested) {
+        
+            mStyleRequested = true;
+            getHandler().post(mPrepareStyle);
+        
+        }
+    
+    }
+    
+    private void scheduleBuild() {
+    
+        if (mBuildScheduled || (mPending == 0))
+            return;
+        
+        mBuildScheduled = true;
+        Looper.myQueue().addIdleHandler(mBuild);
+    
+    }
+    
+    /** Changes the max size, dropping pooled views and views not yet built above it. */
+    public void setMaxSize(int maxSize) {
+    
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize must not be negative");
+        
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    
+    }
+    
+    /**
+     * Drops pooled views until at most the given number is left. Views not yet built are only
+     * cancelled as far as they would take the pool above that number.
+     */
+    public void trimToSize(int size) {
+    
+        size = Math.max(0, size);
+        
+        while (mViews.size() > size)
+            mViews.remove(mViews.size() - 1);
+        
+        mPending = Math.min(mPending, (size - mViews.size()));
+    
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,187 @@
+package robertapengelly.support.widget;
+
+import  android.graphics.Bitmap;
+
+import  java.util.Iterator;
+import  java.util.LinkedHashMap;
+
+/**
+ * Process wide pool of fully rendered shadows. Views of the same size, corner radius, elevation,
+ * insets and density share one bitmap. Bitmaps no drawable uses any more are kept for reuse until
+ * the pool needs their room, the least recently used first.
+ */
+final class ShadowBitmapPool {
+
+    /** The most bytes the pooled bitmaps may take, including the ones still in use. */
+    private static final int MAX_BYTES = (4 * 1024 * 1024);
+    
+    private static final LinkedHashMap<Key, Entry> sPool = new LinkedHashMap<>(16, .75f, true);
+    
+    private static int sBytes = 0;
+    
+    private ShadowBitmapPool() {}
+    
+    /** Returns the bitmap for the key and takes a reference to it, or null if nothing is pooled yet. */
+    static synchronized Bitmap acquire(Key key) {
+    
+        Entry entry = sPool.get(key);
+        
+        if (entry == null)
+            return null;
+        
+        ++entry.references;
+        return entry.bitmap;
+    
+    }
+    
+    /**
+     * Adds a freshly rendered bitmap and takes a reference to it. If another drawable pooled the
+     * same shadow in the meantime, that bitmap is returned instead.
+     */
+    static synchronized Bitmap put(Key key, Bitmap bitmap) {
+    
+        Entry entry = sPool.get(key);
+        
+        if (entry == null) {
+        
+            entry = new Entry(bitmap);
+            sPool.put(key, entry);
+            
+            sBytes += entry.bytes;
+        
+        }
+        
+        ++entry.references;
+        return entry.bitmap;
+    
+    }
+    
+    static synchronized void release(Key key) {
+    
+        Entry entry = sPool.get(key);
+        
+        if (entry != null)
+            --entry.references;
+    
+    }
+    
+    /**
+     * Makes room for a shadow of the given size, evicting bitmaps that are no longer used. Returns
+     * false if the shadows still in use leave no room, in which case the caller shouldn't render it.
+     */
+    static synchronized boolean reserve(int width, int height) {
+        return trimToSize(MAX_BYTES - width * height * 4);
+    }
+    
+    /** Evicts unused bitmaps, least recently used first, until the pool takes at most the given bytes. */
+    private static boolean trimToSize(int maxBytes) {
+    
+        Iterator<Entry> entries = sPool.values().iterator();
+        
+        while ((sBytes > maxBytes) && entries.hasNext()) {
+        
+            Entry entry = entries.next();
+            
+            if (entry.references > 0)
+                continue;
+            
+            entries.remove();
+            sBytes -= entry.bytes;
+        
+        }
+        
+        return (sBytes <= maxBytes);
+    
+    }
+    
+    private static final class Entry {
+    
+        final Bitmap bitmap;
+        
+        final int bytes;
+        
+        int references;
+        
+        Entry(Bitmap bitmap) {
+        
+            this.bitmap = bitmap;
+            this.bytes = (bitmap.getRowBytes() * bitmap.getHeight());
+        
+        }
+    
+    }
+    
+    static final class Key {
+    
+        final boolean ringOnly;
+        
+        final int cornerRadius;
+        final int density;
+        final int height;
+        final int insetBottom;
+        final int insetLeft;
+        final int insetRight;
+        final int insetTop;
+        final int maxShadowSize;
+        final int shadowSize;
+        final int width;
+        
+        Key(int width, int height, int cornerRadius, int shadowSize, int maxShadowSize, int insetLeft, int insetTop,
+            int insetRight, int insetBottom, boolean ringOnly, int density) {
+        
+            this.cornerRadius = cornerRadius;
+            this.density = density;
+            this.height = height;
+            this.insetBottom = insetBottom;
+            this.insetLeft = insetLeft;
+            this.insetRight = insetRight;
+            this.insetTop = insetTop;
+            this.maxShadowSize = maxShadowSize;
+            this.ringOnly = ringOnly;
+            this.shadowSize = shadowSize;
+            this.width = width;
+        
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+        
+            if (this == o)
+                return true;
+            
+            if (!(o instanceof Key))
+                return false;
+            
+            Key other = (Key) o;
+            
+            return ((cornerRadius == other.cornerRadius) && (density == other.density) && (height == other.height)
+                && (insetBottom == other.insetBottom) && (insetLeft == other.insetLeft)
+                && (insetRight == other.insetRight) && (insetTop == other.insetTop)
+                && (maxShadowSize == other.maxShadowSize) && (ringOnly == other.ringOnly)
+                && (shadowSize == other.shadowSize) && (width == other.width));
+        
+        }
+        
+        @Override
+        public int hashCode() {
+        
+            int result = cornerRadius;
+            
+            result = (31 * result + density);
+            result = (31 * result + height);
+            result = (31 * result + insetBottom);
+            result = (31 * result + insetLeft);
+            result = (31 * result + insetRight);
+            result = (31 * result + insetTop);
+            result = (31 * result + maxShadowSize);
+            result = (31 * result + (ringOnly ? 1 : 0));
+            result = (31 * result + shadowSize);
+            result = (31 * result + width);
+            
+            return result;
+        
+        }
+    
+    }
+
+}
\ No newline at end of file
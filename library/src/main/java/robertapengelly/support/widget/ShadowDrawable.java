@@ -1,231 +1,602 @@
 package robertapengelly.support.widget;
 
 import  android.content.res.Resources;
+import  android.graphics.Bitmap;
 import  android.graphics.Canvas;
 import  android.graphics.Color;
 import  android.graphics.ColorFilter;
-import  android.graphics.LinearGradient;
+import  android.graphics.Matrix;
 import  android.graphics.Paint;
 import  android.graphics.Path;
 import  android.graphics.PixelFormat;
-import  android.graphics.RadialGradient;
 import  android.graphics.Rect;
 import  android.graphics.RectF;
 import  android.graphics.Shader;
 import  android.graphics.drawable.Drawable;
+import  android.util.StateSet;
 import  android.util.TypedValue;
 
 class ShadowDrawable extends Drawable {
 
     private final static float SHADOW_MULTIPLIER = 1.5f;
     
-    private int mInsetBottom = 0;
-    private int mInsetLeft = 0;
-    private int mInsetRight = 0;
-    private int mInsetTop = 0;
+    /** The view bounds need to be recomputed from the drawable bounds and insets. */
+    private static final int DIRTY_BOUNDS = 1;
     
-    private final int mInsetShadow; // extra shadow to avoid gaps between card and shadow
-    private final int mShadowEndColor;
-    private final int mShadowStartColor;
+    /** The absolute outline used by {@link #RENDER_MODE_PATH} needs to be rebuilt. */
+    private static final int DIRTY_PATH = (1 << 1);
     
-    private final RectF mViewBounds;
+    /** The pooled bitmap used by {@link #RENDER_MODE_SHARED_BITMAP} needs to be looked up again. */
+    private static final int DIRTY_BITMAP = (1 << 2);
     
-    private boolean mDirty = true;
+    /** Draws the shadow with gradient shaders every frame. */
+    static final int RENDER_MODE_GRADIENT = 0;
+    
+    /** Draws the shadow from a shared, pre-rendered nine-patch. */
+    static final int RENDER_MODE_NINE_PATCH = 1;
+    
+    /** Draws the shadow from outlines and gradients laid out in absolute coordinates. */
+    static final int RENDER_MODE_PATH = 2;
+    
+    /** Blits a fully rendered shadow that is shared by every drawable of the same size and look. */
+    static final int RENDER_MODE_SHARED_BITMAP = 3;
+    
+    private int mDirty = (DIRTY_BOUNDS | DIRTY_PATH | DIRTY_BITMAP);
+    private int mRenderMode = RENDER_MODE_GRADIENT;
+    
+    private final RectF mViewBounds = new RectF();
+    
+    /**
+     * While animating the shadow is drawn with gradients from the prepared shader frames, which needs
+     * no allocation per frame unlike rebuilding outlines, nine-patches or pooled bitmaps.
+     */
+    private boolean mAnimating = false;
     
     /** If shadow size is set to a value above max shadow, we print a warning. */
     private boolean mPrintedShadowClipWarning = false;
     
-    private float mCornerRadius;
+    private boolean mPathDrawSideEdges;
+    private boolean mPathDrawTopBottomEdges;
+    
+    /** Skips the interior that an opaque content layer covers anyway. */
+    private boolean mRingOnly = false;
+    
+    /** Whether mState may be used by other drawables, in which case it is copied before any change. */
+    private boolean mStateShared;
+    
+    private Bitmap mSharedBitmap;
+    
+    private ShadowBitmapPool.Key mSharedBitmapKey;
     
-    // actual value set by developer
-    private float mRawMaxShadowSize;
+    private Paint mPathCornerPaint;
     
-    // actual value set by developer
-    private float mRawShadowSize;
+    private Paint mPathEdgePaint;
     
-    // multiplied value to account for shadow offset
-    private float mShadowSize;
+    private Matrix mPathMatrix;
     
-    private Paint mCornerShadowPaint;
+    private Path[] mPathCorners;
     
-    private Paint mEdgeShadowPaint;
+    private Rect mNinePatchSrc;
     
-    private Path mCornerShadowPath;
+    private RectF mNinePatchDst;
+    
+    /** The top, left, bottom and right edge, in the order the corners are drawn. */
+    private RectF[] mPathEdges;
+    
+    /** The corner radius and shadow size the path shaders were built for. */
+    private float mPathShaderRadius = -1f;
+    private float mPathShaderSize = -1f;
+    
+    private float[] mPathCentres;
+    
+    /**
+     * The corner and edge gradients of each corner, placed with their local matrix. They are built
+     * once per corner radius and shadow size, the cached ones are shared so they can't be moved.
+     */
+    private ShadowShaderCache.Shaders[] mPathShaders;
+    
+    private ShadowState mState;
     
     ShadowDrawable(Resources resources, float radius, float shadowSize) {
     
-        mInsetShadow = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 1f, resources.getDisplayMetrics());
-        mShadowStartColor = Color.parseColor("#37000000");
-        mShadowEndColor = Color.parseColor("#03000000");
+        mState = new ShadowState(resources, radius);
+        setShadowSize(shadowSize, shadowSize);
+    
+    }
+    
+    private ShadowDrawable(ShadowState state) {
+    
+        mState = state;
+        mStateShared = true;
+    
+    }
+    
+    /**
+     * Lays the corners and edges out in absolute coordinates, with the vertical offset baked in, so
+     * that {@link #RENDER_MODE_PATH} can draw them without touching the canvas matrix.
+     */
+    private void buildShadowPath() {
+    
+        final ShadowState state = mState;
         
-        mCornerShadowPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
-        mCornerShadowPaint.setStyle(Paint.Style.FILL);
-        mCornerRadius = (int) (radius + .5f);
+        final float inset = (state.mCornerRadius + state.mInsetShadow + state.mRawShadowSize / 2);
+        final float offset = (state.mRawShadowSize / 2);
+        final float outer = (state.mCornerRadius + state.mShadowSize);
         
-        mEdgeShadowPaint = new Paint(mCornerShadowPaint);
-        mEdgeShadowPaint.setAntiAlias(false);
+        // centres of the four corners
+        final float bottom = (mViewBounds.bottom - inset + offset);
+        final float left = (mViewBounds.left + inset);
+        final float right = (mViewBounds.right - inset);
+        final float top = (mViewBounds.top + inset + offset);
         
-        mViewBounds = new RectF();
+        if (mPathCorners == null) {
         
-        setShadowSize(shadowSize, shadowSize);
+            mPathCentres = new float[8];
+            mPathCorners = new Path[] { new Path(), new Path(), new Path(), new Path() };
+            mPathEdges = new RectF[] { new RectF(), new RectF(), new RectF(), new RectF() };
+            mPathMatrix = new Matrix();
+            mPathShaders = new ShadowShaderCache.Shaders[4];
+            
+            mPathCornerPaint = new Paint(state.mCornerShadowPaint);
+            mPathEdgePaint = new Paint(state.mEdgeShadowPaint);
+        
+        }
+        
+        if ((mPathShaderRadius != state.mCornerRadius) || (mPathShaderSize != state.mShadowSize)) {
+        
+            for (int i = 0; i < 4; ++i)
+                mPathShaders[i] = ShadowShaderCache.create((int) state.mCornerRadius, (int) state.mShadowSize,
+                    state.mShadowStartColor, state.mShadowEndColor, Shader.TileMode.CLAMP);
+            
+            mPathShaderRadius = state.mCornerRadius;
+            mPathShaderSize = state.mShadowSize;
+        
+        }
+        
+        final float[] centres = mPathCentres;
+        
+        centres[0] = left;
+        centres[1] = top;
+        centres[2] = left;
+        centres[3] = bottom;
+        centres[4] = right;
+        centres[5] = bottom;
+        centres[6] = right;
+        centres[7] = top;
+        
+        // LT, LB, RB, RT as drawn by drawShadow, each edge shares the frame of the corner it starts at
+        for (int i = 0; i < 4; ++i) {
+        
+            mPathMatrix.setRotate((i == 0) ? 0f : (360f - i * 90f));
+            mPathMatrix.postTranslate(centres[i * 2], centres[i * 2 + 1]);
+            
+            state.mCornerShadowPath.transform(mPathMatrix, mPathCorners[i]);
+            
+            mPathShaders[i].corner.setLocalMatrix(mPathMatrix);
+            mPathShaders[i].edge.setLocalMatrix(mPathMatrix);
+        
+        }
+        
+        // the top and bottom edges either stop at the corner centres or meet in the middle
+        final float middle = (mRingOnly ? 0 : ((bottom - top) / 2));
+        
+        mPathDrawTopBottomEdges = ((right - left) > 0);
+        mPathDrawSideEdges = ((bottom - top) > 0);
+        
+        mPathEdges[0].set(left, (top - outer), right, (top + middle));
+        mPathEdges[1].set((left - outer), top, left, bottom);
+        mPathEdges[2].set(left, (bottom - middle), right, (bottom + outer));
+        mPathEdges[3].set(right, top, (right + outer), bottom);
     
     }
     
-    private void buildComponents(Rect bounds) {
+    private void buildViewBounds() {
     
-        final float verticalOffset = (mRawMaxShadowSize * SHADOW_MULTIPLIER);
+        final Rect bounds = getBounds();
+        final ShadowState state = mState;
         
-        mViewBounds.set((bounds.left + mRawMaxShadowSize), (bounds.top + verticalOffset),
-            (bounds.right - mRawMaxShadowSize), (bounds.bottom - verticalOffset));
+        final float horizontalOffset = state.mRawMaxShadowSize;
+        final float verticalOffset = (state.mRawMaxShadowSize * SHADOW_MULTIPLIER);
         
-        buildShadowCorners();
+        mViewBounds.set((bounds.left + state.mInsetLeft + horizontalOffset), (bounds.top + state.mInsetTop + verticalOffset),
+            (bounds.right - state.mInsetRight - horizontalOffset), (bounds.bottom - state.mInsetBottom - verticalOffset));
     
     }
     
-    private void buildShadowCorners() {
+    @Override
+    public void draw(Canvas canvas) {
     
-        RectF innerBounds = new RectF(-mCornerRadius, -mCornerRadius, mCornerRadius, mCornerRadius);
+        if ((mDirty & DIRTY_BOUNDS) != 0)
+            buildViewBounds();
         
-        RectF outerBounds = new RectF(innerBounds);
-        outerBounds.inset(-mShadowSize, -mShadowSize);
+        // the absolute outline and the pooled bitmap are only refreshed when they are actually drawn
+        mDirty &= ~DIRTY_BOUNDS;
         
-        if (mCornerShadowPath == null)
-            mCornerShadowPath = new Path();
-        else
-            mCornerShadowPath.reset();
+        if (mState.mShadowDirty)
+            mState.buildShadowCorners();
         
-        mCornerShadowPath.setFillType(Path.FillType.EVEN_ODD);
-        mCornerShadowPath.moveTo(-mCornerRadius, 0);
-        mCornerShadowPath.rLineTo(-mShadowSize, 0);
+        if (mAnimating) {
         
-        // outer arc
-        mCornerShadowPath.arcTo(outerBounds, 180f, 90f, false);
+            drawGradients(canvas);
+            return;
         
-        // inner arc
-        mCornerShadowPath.arcTo(innerBounds, 270f, -90f, false);
+        }
         
-        mCornerShadowPath.close();
+        if (mRenderMode == RENDER_MODE_PATH) {
         
-        float startRatio = (mCornerRadius / (mCornerRadius + mShadowSize));
+            if ((mDirty & DIRTY_PATH) != 0)
+                buildShadowPath();
+            
+            mDirty &= ~DIRTY_PATH;
+            
+            drawShadowPath(canvas);
+            return;
         
-        mCornerShadowPaint.setShader(new RadialGradient(0, 0, (mCornerRadius + mShadowSize),
-            new int[] { mShadowStartColor, mShadowStartColor, mShadowEndColor },
-                new float[] { 0f, startRatio, 1f }, Shader.TileMode.CLAMP));
+        }
         
-        // we offset the content shadowSize/2 pixels up to make it more realistic.
-        // this is why edge shadow shader has some extra space
-        // When drawing bottom edge shadow, we use that extra space.
-        mEdgeShadowPaint.setShader(new LinearGradient(0, (-mCornerRadius + mShadowSize), 0,
-            (-mCornerRadius - mShadowSize), new int[] { mShadowStartColor, mShadowStartColor, mShadowEndColor },
-                new float[] { 0f, .5f, 1f }, Shader.TileMode.CLAMP));
+        if ((mRenderMode == RENDER_MODE_SHARED_BITMAP) && drawSharedBitmap(canvas))
+            return;
         
-        mEdgeShadowPaint.setAntiAlias(false);
+        if ((mRenderMode == RENDER_MODE_NINE_PATCH) && drawNinePatch(canvas))
+            return;
+        
+        drawGradients(canvas);
     
     }
     
-    @Override
-    public void draw(Canvas canvas) {
+    private void drawGradients(Canvas canvas) {
+    
+        final float offset = (mState.mRawShadowSize / 2);
+        
+        canvas.translate(0, offset);
+        drawShadow(canvas, mViewBounds, mRingOnly);
+        
+        canvas.translate(0, -offset);
+    
+    }
+    
+    /**
+     * Blits the shared nine-patch stretched over the current bounds. Returns false if the view
+     * is too small for the edges to be stretched, in which case the gradients are drawn instead.
+     */
+    private boolean drawNinePatch(Canvas canvas) {
+    
+        final ShadowState state = mState;
+        final float inset = (state.mCornerRadius + state.mInsetShadow + state.mRawShadowSize / 2);
+        
+        if (((mViewBounds.width() - 2 * inset) <= 0) || ((mViewBounds.height() - 2 * inset) <= 0))
+            return false;
+        
+        if (state.mNinePatch == null)
+            state.mNinePatch = getNinePatch(inset);
+        
+        if (mNinePatchSrc == null) {
+        
+            mNinePatchDst = new RectF();
+            mNinePatchSrc = new Rect();
+        
+        }
+        
+        final int size = (int) (state.mCornerRadius + state.mShadowSize);
+        
+        final float bottom = (mViewBounds.bottom - inset + size + state.mRawShadowSize / 2);
+        final float left = (mViewBounds.left + inset - size);
+        final float right = (mViewBounds.right - inset + size);
+        final float top = (mViewBounds.top + inset - size + state.mRawShadowSize / 2);
+        
+        for (int row = 0; row < 3; ++row) {
+        
+            for (int column = 0; column < 3; ++column) {
+            
+                if (mRingOnly && (row == 1) && (column == 1))
+                    continue;
+                
+                mNinePatchSrc.set(getNinePatchSrc(column, size), getNinePatchSrc(row, size),
+                    getNinePatchSrc((column + 1), size), getNinePatchSrc((row + 1), size));
+                
+                mNinePatchDst.set(getNinePatchDst(column, size, left, right), getNinePatchDst(row, size, top, bottom),
+                    getNinePatchDst((column + 1), size, left, right), getNinePatchDst((row + 1), size, top, bottom));
+                
+                canvas.drawBitmap(state.mNinePatch, mNinePatchSrc, mNinePatchDst, state.mNinePatchPaint);
+            
+            }
+        
+        }
+        
+        return true;
+    
+    }
     
-        if (mDirty) {
+    /**
+     * Blits the pooled shadow for the current bounds, rendering and pooling it first if no other
+     * drawable has done so yet. Returns false if the bounds are empty or the pool has no room left.
+     */
+    private boolean drawSharedBitmap(Canvas canvas) {
+    
+        final Rect bounds = getBounds();
+        
+        if ((mDirty & DIRTY_BITMAP) != 0) {
         
-            Rect bounds = getBounds();
+            mDirty &= ~DIRTY_BITMAP;
+            
+            ShadowBitmapPool.Key key = null;
+            
+            final ShadowState state = mState;
+            
+            if (!bounds.isEmpty())
+                key = new ShadowBitmapPool.Key(bounds.width(), bounds.height(), (int) state.mCornerRadius,
+                    (int) state.mRawShadowSize, (int) state.mRawMaxShadowSize, state.mInsetLeft, state.mInsetTop,
+                    state.mInsetRight, state.mInsetBottom, mRingOnly, state.mDensity);
             
-            bounds.bottom -= mInsetBottom;
-            bounds.left += mInsetLeft;
-            bounds.right -= mInsetRight;
-            bounds.top += mInsetTop;
+            if ((key == null) || !key.equals(mSharedBitmapKey)) {
             
-            buildComponents(bounds);
-            mDirty = false;
+                releaseSharedBitmap();
+                
+                if (key != null) {
+                
+                    mSharedBitmap = ShadowBitmapPool.acquire(key);
+                    
+                    // the gradients are drawn instead while the pool is full of shadows in use
+                    if ((mSharedBitmap == null) && ShadowBitmapPool.reserve(bounds.width(), bounds.height()))
+                        mSharedBitmap = ShadowBitmapPool.put(key, renderSharedBitmap(bounds));
+                    
+                    if (mSharedBitmap != null)
+                        mSharedBitmapKey = key;
+                
+                }
+            
+            }
         
         }
         
-        canvas.translate(0, (mRawShadowSize / 2));
-        drawShadow(canvas);
+        if (mSharedBitmap == null)
+            return false;
         
-        canvas.translate(0, (-mRawShadowSize / 2));
+        canvas.drawBitmap(mSharedBitmap, bounds.left, bounds.top, mState.mNinePatchPaint);
+        return true;
     
     }
     
-    private void drawShadow(Canvas canvas) {
+    private void drawShadow(Canvas canvas, RectF viewBounds, boolean ringOnly) {
     
-        final float edgeShadowTop = (-mCornerRadius - mShadowSize);
-        final float inset = (mCornerRadius + mInsetShadow + mRawShadowSize / 2);
+        final ShadowState state = mState;
+        
+        final Paint cornerShadowPaint = state.mCornerShadowPaint;
+        final Paint edgeShadowPaint = state.mEdgeShadowPaint;
+        final Path cornerShadowPath = state.mCornerShadowPath;
+        
+        final float edgeShadowTop = (-state.mCornerRadius - state.mShadowSize);
+        final float inset = (state.mCornerRadius + state.mInsetShadow + state.mRawShadowSize / 2);
         
-        final boolean drawHorizontalEdges = ((mViewBounds.width() - 2 * inset) > 0);
-        final boolean drawVerticalEdges = ((mViewBounds.height() - 2 * inset) > 0);
+        // the top and bottom edges either stop at the corner centres or meet in the middle
+        final float edgeShadowBottom = (ringOnly ? 0 : (viewBounds.height() / 2 - inset));
+        
+        final boolean drawHorizontalEdges = ((viewBounds.width() - 2 * inset) > 0);
+        final boolean drawVerticalEdges = ((viewBounds.height() - 2 * inset) > 0);
         
         // LT
         int saved = canvas.save();
         
-        canvas.translate((mViewBounds.left + inset), (mViewBounds.top + inset));
-        canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
+        canvas.translate((viewBounds.left + inset), (viewBounds.top + inset));
+        canvas.drawPath(cornerShadowPath, cornerShadowPaint);
         
         if (drawHorizontalEdges)
-            canvas.drawRect(0, edgeShadowTop, (mViewBounds.width() - 2 * inset), (mViewBounds.height() / 2 - inset),
-                mEdgeShadowPaint);
+            canvas.drawRect(0, edgeShadowTop, (viewBounds.width() - 2 * inset), edgeShadowBottom, edgeShadowPaint);
         
         canvas.restoreToCount(saved);
         
         // LB
         saved = canvas.save();
         
-        canvas.translate((mViewBounds.left + inset), (mViewBounds.bottom - inset));
+        canvas.translate((viewBounds.left + inset), (viewBounds.bottom - inset));
         canvas.rotate(270f);
-        canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
+        canvas.drawPath(cornerShadowPath, cornerShadowPaint);
         
         if (drawVerticalEdges)
-            canvas.drawRect(0, edgeShadowTop, (mViewBounds.height() - 2 * inset), 0, mEdgeShadowPaint);
+            canvas.drawRect(0, edgeShadowTop, (viewBounds.height() - 2 * inset), 0, edgeShadowPaint);
         
         canvas.restoreToCount(saved);
         
         // RB
         saved = canvas.save();
         
-        canvas.translate((mViewBounds.right - inset), (mViewBounds.bottom - inset));
+        canvas.translate((viewBounds.right - inset), (viewBounds.bottom - inset));
         canvas.rotate(180f);
-        canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
+        canvas.drawPath(cornerShadowPath, cornerShadowPaint);
         
         if (drawHorizontalEdges)
-            canvas.drawRect(0, edgeShadowTop, (mViewBounds.width() - 2 * inset), (mViewBounds.height() / 2 - inset),
-                mEdgeShadowPaint);
+            canvas.drawRect(0, edgeShadowTop, (viewBounds.width() - 2 * inset), edgeShadowBottom, edgeShadowPaint);
         
         canvas.restoreToCount(saved);
         
         // RT
         saved = canvas.save();
         
-        canvas.translate((mViewBounds.right - inset), (mViewBounds.top + inset));
+        canvas.translate((viewBounds.right - inset), (viewBounds.top + inset));
         canvas.rotate(90f);
-        canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
+        canvas.drawPath(cornerShadowPath, cornerShadowPaint);
         
         if (drawVerticalEdges)
-            canvas.drawRect(0, edgeShadowTop, (mViewBounds.height() - 2 * inset), 0, mEdgeShadowPaint);
+            canvas.drawRect(0, edgeShadowTop, (viewBounds.height() - 2 * inset), 0, edgeShadowPaint);
         
         canvas.restoreToCount(saved);
     
     }
     
+    private void drawShadowPath(Canvas canvas) {
+    
+        for (int i = 0; i < 4; ++i) {
+        
+            mPathCornerPaint.setShader(mPathShaders[i].corner);
+            canvas.drawPath(mPathCorners[i], mPathCornerPaint);
+            
+            if (((i % 2) == 0) ? mPathDrawTopBottomEdges : mPathDrawSideEdges) {
+            
+                mPathEdgePaint.setShader(mPathShaders[i].edge);
+                canvas.drawRect(mPathEdges[i], mPathEdgePaint);
+            
+            }
+        
+        }
+    
+    }
+    
     @Override
     public int getAlpha() {
-        return mEdgeShadowPaint.getAlpha();
+        return mState.mEdgeShadowPaint.getAlpha();
+    }
+    
+    @Override
+    public ConstantState getConstantState() {
+    
+        // from now on the state is copied before this drawable changes it
+        mStateShared = true;
+        return mState;
+    
+    }
+    
+    /** Returns how far the shadow reaches past the left and right of the view it is cast by. */
+    int getHorizontalOutset() {
+        return (int) Math.ceil(mState.mRawMaxShadowSize);
     }
     
     float getMinHeight() {
     
-        final float content = (2 * Math.max(mRawMaxShadowSize, (mCornerRadius + mInsetShadow
-            + mRawMaxShadowSize * SHADOW_MULTIPLIER / 2)));
+        final ShadowState state = mState;
+        
+        final float content = (2 * Math.max(state.mRawMaxShadowSize, (state.mCornerRadius + state.mInsetShadow
+            + state.mRawMaxShadowSize * SHADOW_MULTIPLIER / 2)));
                         
-        return (content + (mRawMaxShadowSize * SHADOW_MULTIPLIER + mInsetShadow) * 2);
+        return (content + (state.mRawMaxShadowSize * SHADOW_MULTIPLIER + state.mInsetShadow) * 2);
     
     }
     
     float getMinWidth() {
     
-        final float content = (2 * Math.max(mRawMaxShadowSize, (mCornerRadius + mInsetShadow + mRawMaxShadowSize / 2)));
+        final ShadowState state = mState;
+        
+        final float content = (2 * Math.max(state.mRawMaxShadowSize, (state.mCornerRadius + state.mInsetShadow
+            + state.mRawMaxShadowSize / 2)));
+        
+        return (content + (state.mRawMaxShadowSize + state.mInsetShadow) * 2);
+    
+    }
+    
+    /**
+     * Returns the nine-patch for the current corner radius and shadow size, rendering it into the
+     * shared cache if no other ShadowDrawable has done so yet. It is rendered fully opaque and faded
+     * when blitting, so that alpha changes never need another bitmap.
+     */
+    private Bitmap getNinePatch(float inset) {
+    
+        final ShadowState state = mState;
+        
+        ShadowNinePatchCache.Key key = new ShadowNinePatchCache.Key((int) state.mCornerRadius, (int) state.mShadowSize,
+            (int) state.mRawShadowSize, state.mDensity);
+        
+        Bitmap ninePatch = ShadowNinePatchCache.get(key);
+        
+        if (ninePatch != null)
+            return ninePatch;
+        
+        final int size = (int) (state.mCornerRadius + state.mShadowSize);
+        final int length = (2 * size + 1);
+        
+        // lay the shadow out so that the corners fill the bitmap and the edges are a single pixel, the
+        // centre is always rendered so the bitmap can be shared and is skipped when blitting instead
+        final float start = (size - inset);
+        
+        final int alpha = getAlpha();
+        
+        ninePatch = Bitmap.createBitmap(length, length, Bitmap.Config.ARGB_8888);
+        
+        state.setPaintAlpha(0xFF);
+        drawShadow(new Canvas(ninePatch), new RectF(start, start, (start + 2 * inset + 1), (start + 2 * inset + 1)),
+            false);
+        
+        state.setPaintAlpha(alpha);
+        
+        ShadowNinePatchCache.put(key, ninePatch);
+        return ninePatch;
+    
+    }
+    
+    /**
+     * Looks up the shaders for every shadow size up to the given max ahead of time, so that animating
+     * the shadow size below it never has to create or look up gradients.
+     */
+    void prepareShadowSizes(float maxShadowSize) {
+        mState.prepareShadowSizes(toEven(maxShadowSize));
+    }
+    
+    /** Drops this drawable's reference to the pooled bitmap, it is looked up again on the next draw. */
+    void releaseSharedBitmap() {
+    
+        if (mSharedBitmapKey != null)
+            ShadowBitmapPool.release(mSharedBitmapKey);
+        
+        mDirty |= DIRTY_BITMAP;
+        
+        mSharedBitmap = null;
+        mSharedBitmapKey = null;
+    
+    }
+    
+    private Bitmap renderSharedBitmap(Rect bounds) {
+    
+        Bitmap bitmap = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888);
+        
+        Canvas canvas = new Canvas(bitmap);
+        canvas.translate(-bounds.left, (mState.mRawShadowSize / 2 - bounds.top));
+        
+        // rendered fully opaque and faded when blitting, like the nine-patch
+        final int alpha = getAlpha();
+        
+        mState.setPaintAlpha(0xFF);
+        drawShadow(canvas, mViewBounds, mRingOnly);
+        
+        mState.setPaintAlpha(alpha);
+        return bitmap;
+    
+    }
+    
+    private static float getNinePatchDst(int index, int size, float start, float end) {
+    
+        switch (index) {
+        
+            case 0:
+                return start;
+            case 1:
+                return (start + size);
+            case 2:
+                return (end - size);
+            default:
+                return end;
+        
+        }
+    
+    }
+    
+    private static int getNinePatchSrc(int index, int size) {
+    
+        switch (index) {
+        
+            case 0:
+                return 0;
+            case 1:
+                return size;
+            case 2:
+                return (size + 1);
+            default:
+                return (2 * size + 1);
         
-        return (content + (mRawMaxShadowSize + mInsetShadow) * 2);
+        }
+    
+    }
     
+    /** Returns how far the shadow reaches past the top and bottom of the view it is cast by. */
+    int getVerticalOutset() {
+        return (int) Math.ceil(mState.mRawMaxShadowSize * SHADOW_MULTIPLIER);
     }
     
     @Override
@@ -233,19 +604,107 @@ class ShadowDrawable extends Drawable {
         return PixelFormat.TRANSLUCENT;
     }
     
+    @Override
+    public boolean isStateful() {
+        return (mState.mStateSets != null);
+    }
+    
+    @Override
+    public Drawable mutate() {
+    
+        if (super.mutate() == this)
+            mutateState();
+        
+        return this;
+    
+    }
+    
+    /** Gives this drawable its own copy of the state if it may be shared with other drawables. */
+    private void mutateState() {
+    
+        if (!mStateShared)
+            return;
+        
+        mState = new ShadowState(mState);
+        mStateShared = false;
+    
+    }
+    
     @Override
     protected void onBoundsChange(Rect bounds) {
         super.onBoundsChange(bounds);
         
-        mDirty = true;
+        mDirty |= (DIRTY_BOUNDS | DIRTY_PATH | DIRTY_BITMAP);
+    
+    }
+    
+    @Override
+    protected boolean onStateChange(int[] state) {
+    
+        final int[][] stateSets = mState.mStateSets;
+        
+        if (stateSets == null)
+            return false;
+        
+        ShadowSpec spec = null;
+        
+        for (int i = 0; i < stateSets.length; ++i) {
+        
+            if (StateSet.stateSetMatches(stateSets[i], state)) {
+            
+                spec = mState.mStateShadows[i];
+                break;
+            
+            }
+        
+        }
+        
+        // like a selector, nothing is drawn if no state matches
+        final int alpha = ((spec != null) ? spec.alpha : 0);
+        final boolean changed = (alpha != getAlpha());
+        
+        setAlpha(alpha);
+        
+        if ((spec == null) || ((spec.insetBottom == mState.mInsetBottom) && (spec.insetLeft == mState.mInsetLeft)
+            && (spec.insetRight == mState.mInsetRight) && (spec.insetTop == mState.mInsetTop)))
+            return changed;
+        
+        setInsets(spec.insetLeft, spec.insetTop, spec.insetRight, spec.insetBottom);
+        return true;
     
     }
     
     @Override
     public void setAlpha(int alpha) {
     
-        mCornerShadowPaint.setAlpha(alpha);
-        mEdgeShadowPaint.setAlpha(alpha);
+        if (alpha == getAlpha())
+            return;
+        
+        mutateState();
+        mState.setPaintAlpha(alpha);
+        
+        if (mPathCornerPaint != null) {
+        
+            mPathCornerPaint.setAlpha(alpha);
+            mPathEdgePaint.setAlpha(alpha);
+        
+        }
+        
+        invalidateSelf();
+    
+    }
+    
+    /**
+     * Marks the shadow size as being animated. Until it is cleared the shadow is drawn with gradients
+     * regardless of the render mode, the cached representations are refreshed once it settles.
+     */
+    void setAnimating(boolean animating) {
+    
+        if (mAnimating == animating)
+            return;
+        
+        mAnimating = animating;
+        invalidateSelf();
     
     }
     
@@ -254,17 +713,63 @@ class ShadowDrawable extends Drawable {
     
     void setInsets(int insetLeft, int insetTop, int insetRight, int insetBottom) {
     
-        mDirty = true;
+        mutateState();
+        
+        mDirty |= (DIRTY_BOUNDS | DIRTY_PATH | DIRTY_BITMAP);
+        
+        mState.mInsetBottom = insetBottom;
+        mState.mInsetLeft = insetLeft;
+        mState.mInsetRight = insetRight;
+        mState.mInsetTop = insetTop;
+        
+        invalidateSelf();
+    
+    }
+    
+    /**
+     * Paints only the ring outside the content rect instead of also filling the interior, which is
+     * pure overdraw when the layer on top is opaque.
+     */
+    void setRingOnly(boolean ringOnly) {
+    
+        if (mRingOnly == ringOnly)
+            return;
+        
+        mDirty |= (DIRTY_PATH | DIRTY_BITMAP);
+        mRingOnly = ringOnly;
+        
+        invalidateSelf();
+    
+    }
+    
+    void setRenderMode(int renderMode) {
+    
+        if (mRenderMode == renderMode)
+            return;
         
-        mInsetBottom = insetBottom;
-        mInsetLeft = insetLeft;
-        mInsetRight = insetRight;
-        mInsetTop = insetTop;
+        if (mRenderMode == RENDER_MODE_SHARED_BITMAP)
+            releaseSharedBitmap();
         
+        mRenderMode = renderMode;
         invalidateSelf();
     
     }
     
+    /**
+     * Makes this drawable follow a selector background. All states share the geometry of this drawable
+     * and only switch the alpha and insets, instead of swapping in a separate drawable per state.
+     */
+    void setStateShadows(int[][] stateSets, ShadowSpec[] states) {
+    
+        mutateState();
+        
+        mState.mStateSets = stateSets;
+        mState.mStateShadows = states;
+        
+        onStateChange(getState());
+    
+    }
+    
     void setShadowSize(float shadowSize, float maxShadowSize) {
     
         if (shadowSize < 0f)
@@ -285,14 +790,29 @@ class ShadowDrawable extends Drawable {
         
         }
         
-        if ((mRawShadowSize == shadowSize) && (mRawMaxShadowSize == maxShadowSize))
+        if ((mState.mRawShadowSize == shadowSize) && (mState.mRawMaxShadowSize == maxShadowSize))
             return;
         
-        mRawMaxShadowSize = maxShadowSize;
-        mRawShadowSize = shadowSize;
+        mutateState();
+        
+        final ShadowState state = mState;
+        
+        if (state.mRawMaxShadowSize != maxShadowSize)
+            mDirty |= DIRTY_BOUNDS;
+        
+        mDirty |= (DIRTY_PATH | DIRTY_BITMAP);
         
-        mDirty = true;
-        mShadowSize = (int) (shadowSize * SHADOW_MULTIPLIER + mInsetShadow + .5f);
+        state.mRawMaxShadowSize = maxShadowSize;
+        state.mRawShadowSize = shadowSize;
+        
+        final float size = (int) (shadowSize * SHADOW_MULTIPLIER + state.mInsetShadow + .5f);
+        
+        if (state.mShadowSize != size) {
+        
+            state.mShadowDirty = true;
+            state.mShadowSize = size;
+        
+        }
         
         invalidateSelf();
     
@@ -309,5 +829,203 @@ class ShadowDrawable extends Drawable {
         return i;
     
     }
+    
+    /**
+     * Everything a ShadowDrawable needs to draw that doesn't depend on its bounds. Drawables created
+     * from the same state share its paints, corner path, shaders and nine-patch until one of them
+     * changes, at which point that drawable continues with a copy.
+     */
+    static final class ShadowState extends ConstantState {
+    
+        final int mDensity;
+        final int mInsetShadow; // extra shadow to avoid gaps between card and shadow
+        final int mShadowEndColor;
+        final int mShadowStartColor;
+        
+        int mInsetBottom = 0;
+        int mInsetLeft = 0;
+        int mInsetRight = 0;
+        int mInsetTop = 0;
+        
+        /** Whether the corner path and gradients need to be rebuilt for a new shadow size. */
+        boolean mShadowDirty = true;
+        
+        /** Whether mCornerShadowPath belongs to this state or is still shared with the one it was copied from. */
+        private boolean mOwnsCornerPath = false;
+        
+        float mCornerRadius;
+        
+        // actual value set by developer
+        float mRawMaxShadowSize;
+        
+        // actual value set by developer
+        float mRawShadowSize;
+        
+        // multiplied value to account for shadow offset
+        float mShadowSize;
+        
+        Bitmap mNinePatch;
+        
+        final Paint mCornerShadowPaint;
+        
+        final Paint mEdgeShadowPaint;
+        
+        final Paint mNinePatchPaint;
+        
+        Path mCornerShadowPath;
+        
+        private RectF mCornerInnerBounds;
+        private RectF mCornerOuterBounds;
+        
+        /** The state sets of a selector background and the alpha and insets to use for each of them. */
+        int[][] mStateSets;
+        ShadowSpec[] mStateShadows;
+        
+        /** Shaders prepared for every shadow size up to the max, indexed by the multiplied size. */
+        private ShadowShaderCache.Shaders[] mShaderFrames;
+        
+        ShadowState(Resources resources, float radius) {
+        
+            mDensity = resources.getDisplayMetrics().densityDpi;
+            mInsetShadow = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 1f, resources.getDisplayMetrics());
+            mShadowStartColor = Color.parseColor("#37000000");
+            mShadowEndColor = Color.parseColor("#03000000");
+            
+            mCornerShadowPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+            mCornerShadowPaint.setStyle(Paint.Style.FILL);
+            mCornerRadius = (int) (radius + .5f);
+            
+            mEdgeShadowPaint = new Paint(mCornerShadowPaint);
+            mEdgeShadowPaint.setAntiAlias(false);
+            
+            mNinePatchPaint = new Paint();
+        
+        }
+        
+        ShadowState(ShadowState orig) {
+        
+            mDensity = orig.mDensity;
+            mInsetShadow = orig.mInsetShadow;
+            mShadowEndColor = orig.mShadowEndColor;
+            mShadowStartColor = orig.mShadowStartColor;
+            
+            mInsetBottom = orig.mInsetBottom;
+            mInsetLeft = orig.mInsetLeft;
+            mInsetRight = orig.mInsetRight;
+            mInsetTop = orig.mInsetTop;
+            
+            mCornerRadius = orig.mCornerRadius;
+            mRawMaxShadowSize = orig.mRawMaxShadowSize;
+            mRawShadowSize = orig.mRawShadowSize;
+            mShadowSize = orig.mShadowSize;
+            
+            // the paints carry the alpha so they are copied, the rest is immutable or rebuilt on change
+            mCornerShadowPaint = new Paint(orig.mCornerShadowPaint);
+            mEdgeShadowPaint = new Paint(orig.mEdgeShadowPaint);
+            mNinePatchPaint = new Paint(orig.mNinePatchPaint);
+            
+            mCornerShadowPath = orig.mCornerShadowPath;
+            mNinePatch = orig.mNinePatch;
+            mShaderFrames = orig.mShaderFrames;
+            mShadowDirty = orig.mShadowDirty;
+            mStateSets = orig.mStateSets;
+            mStateShadows = orig.mStateShadows;
+            
+            // neither side may reset the path in place from now on
+            orig.mOwnsCornerPath = false;
+        
+        }
+        
+        void buildShadowCorners() {
+        
+            if (!mOwnsCornerPath) {
+            
+                mCornerInnerBounds = new RectF();
+                mCornerOuterBounds = new RectF();
+                mCornerShadowPath = new Path();
+                mOwnsCornerPath = true;
+            
+            } else
+                mCornerShadowPath.reset();
+            
+            mCornerInnerBounds.set(-mCornerRadius, -mCornerRadius, mCornerRadius, mCornerRadius);
+            
+            mCornerOuterBounds.set(mCornerInnerBounds);
+            mCornerOuterBounds.inset(-mShadowSize, -mShadowSize);
+            
+            mCornerShadowPath.setFillType(Path.FillType.EVEN_ODD);
+            mCornerShadowPath.moveTo(-mCornerRadius, 0);
+            mCornerShadowPath.rLineTo(-mShadowSize, 0);
+            
+            // outer arc
+            mCornerShadowPath.arcTo(mCornerOuterBounds, 180f, 90f, false);
+            
+            // inner arc
+            mCornerShadowPath.arcTo(mCornerInnerBounds, 270f, -90f, false);
+            
+            mCornerShadowPath.close();
+            
+            final int size = (int) mShadowSize;
+            
+            ShadowShaderCache.Shaders shaders;
+            
+            if ((mShaderFrames != null) && (size < mShaderFrames.length) && (mShaderFrames[size] != null))
+                shaders = mShaderFrames[size];
+            else
+                shaders = ShadowShaderCache.get((int) mCornerRadius, size, mShadowStartColor, mShadowEndColor,
+                    Shader.TileMode.CLAMP);
+            
+            mCornerShadowPaint.setShader(shaders.corner);
+            mEdgeShadowPaint.setShader(shaders.edge);
+            
+            mEdgeShadowPaint.setAntiAlias(false);
+            
+            mNinePatch = null;
+            mShadowDirty = false;
+        
+        }
+        
+        @Override
+        public int getChangingConfigurations() {
+            return 0;
+        }
+        
+        @Override
+        public Drawable newDrawable() {
+            return new ShadowDrawable(this);
+        }
+        
+        /** Prepared shaders only depend on values that never change, so they are shared with copies. */
+        void prepareShadowSizes(int max) {
+        
+            final int length = ((int) (max * SHADOW_MULTIPLIER + mInsetShadow + .5f) + 1);
+            
+            if ((mShaderFrames != null) && (mShaderFrames.length >= length))
+                return;
+            
+            ShadowShaderCache.Shaders[] frames = new ShadowShaderCache.Shaders[length];
+            
+            for (int raw = 0; raw <= max; raw += 2) {
+            
+                final int size = (int) (raw * SHADOW_MULTIPLIER + mInsetShadow + .5f);
+                
+                frames[size] = ShadowShaderCache.get((int) mCornerRadius, size, mShadowStartColor, mShadowEndColor,
+                    Shader.TileMode.CLAMP);
+            
+            }
+            
+            mShaderFrames = frames;
+        
+        }
+        
+        void setPaintAlpha(int alpha) {
+        
+            mCornerShadowPaint.setAlpha(alpha);
+            mEdgeShadowPaint.setAlpha(alpha);
+            mNinePatchPaint.setAlpha(alpha);
+        
+        }
+    
+    }
 
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package robertapengelly.support.widget;
+
+import  android.graphics.Bitmap;
+
+/**
+ * Process wide cache of pre-rendered shadow nine-patches. Every ShadowDrawable with the same
+ * corner radius, shadow size and density shares a single bitmap, whatever its alpha.
+ */
+final class ShadowNinePatchCache {
+
+    private static final int MAX_ENTRIES = 32;
+    
+    private static final LruMap<Key, Bitmap> sCache = new LruMap<>(MAX_ENTRIES);
+    
+    private ShadowNinePatchCache() {}
+    
+    static synchronized Bitmap get(Key key) {
+        return sCache.get(key);
+    }
+    
+    static synchronized void put(Key key, Bitmap bitmap) {
+        sCache.put(key, bitmap);
+    }
+    
+    static final class Key {
+    
+        final int cornerRadius;
+        final int density;
+        final int rawShadowSize;
+        final int shadowSize;
+        
+        Key(int cornerRadius, int shadowSize, int rawShadowSize, int density) {
+        
+            this.cornerRadius = cornerRadius;
+            this.density = density;
+            this.rawShadowSize = rawShadowSize;
+            this.shadowSize = shadowSize;
+        
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+        
+            if (this == o)
+                return true;
+            
+            if (!(o instanceof Key))
+                return false;
+            
+            Key other = (Key) o;
+            
+            return ((cornerRadius == other.cornerRadius) && (density == other.density)
+                && (rawShadowSize == other.rawShadowSize) && (shadowSize == other.shadowSize));
+        
+        }
+        
+        @Override
+        public int hashCode() {
+        
+            int result = cornerRadius;
+            
+            result = (31 * result + density);
+            result = (31 * result + rawShadowSize);
+            result = (31 * result + shadowSize);
+            
+            return result;
+        
+        }
+    
+    }
+
+}
\ No newline at end of file
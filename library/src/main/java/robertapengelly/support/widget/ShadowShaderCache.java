@@ -0,0 +1,121 @@
+package robertapengelly.support.widget;
+
+import  android.graphics.LinearGradient;
+import  android.graphics.RadialGradient;
+import  android.graphics.Shader;
+
+/**
+ * Process wide cache of the gradients used to draw shadows. Shaders are immutable once created so
+ * every ShadowDrawable with the same corner radius, shadow size and colors can share them.
+ */
+final class ShadowShaderCache {
+
+    private static final int MAX_ENTRIES = 64;
+    
+    private static final LruMap<Key, Shaders> sCache = new LruMap<>(MAX_ENTRIES);
+    
+    private ShadowShaderCache() {}
+    
+    static synchronized Shaders get(int cornerRadius, int shadowSize, int startColor, int endColor,
+        Shader.TileMode tileMode) {
+        
+        Key key = new Key(cornerRadius, shadowSize, startColor, endColor, tileMode);
+        Shaders shaders = sCache.get(key);
+        
+        if (shaders != null)
+            return shaders;
+        
+        shaders = create(cornerRadius, shadowSize, startColor, endColor, tileMode);
+        sCache.put(key, shaders);
+        
+        return shaders;
+    
+    }
+    
+    /**
+     * Builds gradients that aren't shared, for callers that place them with a local matrix. The corner
+     * is centred on the origin and the edge runs along the x axis with the shadow towards negative y.
+     */
+    static Shaders create(int cornerRadius, int shadowSize, int startColor, int endColor, Shader.TileMode tileMode) {
+    
+        float startRatio = ((float) cornerRadius / (cornerRadius + shadowSize));
+        
+        RadialGradient corner = new RadialGradient(0, 0, (cornerRadius + shadowSize),
+            new int[] { startColor, startColor, endColor }, new float[] { 0f, startRatio, 1f }, tileMode);
+        
+        // we offset the content shadowSize/2 pixels up to make it more realistic.
+        // this is why edge shadow shader has some extra space
+        // When drawing bottom edge shadow, we use that extra space.
+        LinearGradient edge = new LinearGradient(0, (-cornerRadius + shadowSize), 0, (-cornerRadius - shadowSize),
+            new int[] { startColor, startColor, endColor }, new float[] { 0f, .5f, 1f }, tileMode);
+        
+        return new Shaders(corner, edge);
+    
+    }
+    
+    private static final class Key {
+    
+        final int cornerRadius;
+        final int endColor;
+        final int shadowSize;
+        final int startColor;
+        
+        final Shader.TileMode tileMode;
+        
+        Key(int cornerRadius, int shadowSize, int startColor, int endColor, Shader.TileMode tileMode) {
+        
+            this.cornerRadius = cornerRadius;
+            this.endColor = endColor;
+            this.shadowSize = shadowSize;
+            this.startColor = startColor;
+            this.tileMode = tileMode;
+        
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+        
+            if (this == o)
+                return true;
+            
+            if (!(o instanceof Key))
+                return false;
+            
+            Key other = (Key) o;
+            
+            return ((cornerRadius == other.cornerRadius) && (endColor == other.endColor)
+                && (shadowSize == other.shadowSize) && (startColor == other.startColor) && (tileMode == other.tileMode));
+        
+        }
+        
+        @Override
+        public int hashCode() {
+        
+            int result = cornerRadius;
+            
+            result = (31 * result + endColor);
+            result = (31 * result + shadowSize);
+            result = (31 * result + startColor);
+            result = (31 * result + tileMode.hashCode());
+            
+            return result;
+        
+        }
+    
+    }
+    
+    static final class Shaders {
+    
+        final Shader corner;
+        final Shader edge;
+        
+        Shaders(Shader corner, Shader edge) {
+        
+            this.corner = corner;
+            this.edge = edge;
+        
+        }
+    
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,141 @@
+package robertapengelly.support.widget;
+
+import  android.content.res.Resources;
+import  android.graphics.drawable.Drawable;
+import  android.graphics.drawable.Drawable.ConstantState;
+
+import  robertapengelly.support.graphics.drawable.StateListDrawable;
+
+/**
+ * Description of the shadow cast by a background resource: the shadow alpha and insets, or one
+ * description per state for selectors. The description itself never changes, views stamp out their
+ * own drawables from it. The only mutable part is the prototype of the last drawable stamped out,
+ * which is guarded by the spec's lock since specs are shared between threads.
+ */
+final class ShadowSpec {
+
+    final int alpha;
+    final int insetBottom;
+    final int insetLeft;
+    final int insetRight;
+    final int insetTop;
+    
+    /** The state sets of a selector, or null if the shadow is not stateful. */
+    final int[][] stateSets;
+    
+    /** The shadow for each of the state sets. */
+    final ShadowSpec[] states;
+    
+    /**
+     * The state of the last shadow stamped out and what it was built for. Rows of a list share one
+     * spec, so they usually ask for the same shadow and can share its paints, path and shaders.
+     */
+    private ConstantState mPrototype;
+    
+    private float mPrototypeElevation;
+    private float mPrototypeMaxElevation;
+    private float mPrototypeRadius;
+    
+    private int mPrototypeDensity;
+    
+    ShadowSpec(int alpha) {
+        this(alpha, 0, 0, 0, 0);
+    }
+    
+    private ShadowSpec(int alpha, int insetLeft, int insetTop, int insetRight, int insetBottom) {
+    
+        this.alpha = alpha;
+        this.insetBottom = insetBottom;
+        this.insetLeft = insetLeft;
+        this.insetRight = insetRight;
+        this.insetTop = insetTop;
+        
+        this.stateSets = null;
+        this.states = null;
+    
+    }
+    
+    ShadowSpec(int[][] stateSets, ShadowSpec[] states) {
+    
+        this.alpha = 0;
+        this.insetBottom = 0;
+        this.insetLeft = 0;
+        this.insetRight = 0;
+        this.insetTop = 0;
+        
+        this.stateSets = stateSets;
+        this.states = states;
+    
+    }
+    
+    /** Returns whether none of the states is a selector itself, so one drawable can serve them all. */
+    private boolean isFlat() {
+    
+        for (ShadowSpec state : states)
+            if (state.isStateful())
+                return false;
+        
+        return true;
+    
+    }
+    
+    boolean isStateful() {
+        return (stateSets != null);
+    }
+    
+    Drawable newShadow(Resources res, float radius, float elevation, float maxElevation) {
+    
+        if (isStateful() && !isFlat()) {
+        
+            StateListDrawable shadows = new StateListDrawable();
+            
+            for (int i = 0; i < stateSets.length; ++i)
+                shadows.addState(stateSets[i], states[i].newShadow(res, radius, elevation, maxElevation));
+            
+            return shadows;
+        
+        }
+        
+        final int density = res.getDisplayMetrics().densityDpi;
+        
+        synchronized (this) {
+        
+            if ((mPrototype == null) || (mPrototypeDensity != density) || (mPrototypeElevation != elevation)
+                || (mPrototypeMaxElevation != maxElevation) || (mPrototypeRadius != radius)) {
+            
+                ShadowDrawable shadow = new ShadowDrawable(res, radius, elevation);
+                shadow.setShadowSize(elevation, maxElevation);
+                
+                if (isStateful())
+                    shadow.setStateShadows(stateSets, states);
+                else {
+                
+                    shadow.setAlpha(alpha);
+                    
+                    if ((insetBottom != 0) || (insetLeft != 0) || (insetRight != 0) || (insetTop != 0))
+                        shadow.setInsets(insetLeft, insetTop, insetRight, insetBottom);
+                
+                }
+                
+                mPrototype = shadow.getConstantState();
+                mPrototypeDensity = density;
+                mPrototypeElevation = elevation;
+                mPrototypeMaxElevation = maxElevation;
+                mPrototypeRadius = radius;
+            
+            }
+            
+            Drawable shadow = mPrototype.newDrawable(res);
+            
+            // state changes switch the alpha and insets, so the copy is made now instead of on the first press
+            return (isStateful() ? shadow.mutate() : shadow);
+        
+        }
+    
+    }
+    
+    ShadowSpec withInsets(int insetLeft, int insetTop, int insetRight, int insetBottom) {
+        return new ShadowSpec(alpha, insetLeft, insetTop, insetRight, insetBottom);
+    }
+
+}
\ No newline at end of file
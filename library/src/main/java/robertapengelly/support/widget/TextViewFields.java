@@ -0,0 +1,101 @@
+package robertapengelly.support.widget;
+
+import  android.os.Build;
+import  android.os.Trace;
+
+import  java.lang.reflect.Field;
+import  java.util.HashMap;
+
+/**
+ * Resolves the private TextView and Editor fields MaterialTextView writes to once per process.
+ * Lookups that fail are remembered so they are not retried for every view.
+ *
+ * Resolving a field is wrapped in a "MaterialTextView#resolveField" trace section so the one-off
+ * cost can be compared with the per-view cost in systrace.
+ */
+final class TextViewFields {
+
+    static final String CURSOR_DRAWABLE = "mCursorDrawable";
+    static final String EDITOR = "mEditor";
+    static final String SELECT_HANDLE_CENTER = "mSelectHandleCenter";
+    static final String SELECT_HANDLE_LEFT = "mSelectHandleLeft";
+    static final String SELECT_HANDLE_RIGHT = "mSelectHandleRight";
+    
+    private static final HashMap<Class<?>, HashMap<String, Field>> sFields = new HashMap<>();
+    
+    private TextViewFields() {}
+    
+    static Object get(Class<?> owner, Object target, String name) {
+    
+        Field field = getField(owner, name);
+        
+        if (field == null)
+            return null;
+        
+        try {
+            return field.get(target);
+        } catch (Exception ignored) {}
+        
+        return null;
+    
+    }
+    
+    static synchronized Field getField(Class<?> owner, String name) {
+    
+        HashMap<String, Field> fields = sFields.get(owner);
+        
+        if (fields == null) {
+        
+            fields = new HashMap<>();
+            sFields.put(owner, fields);
+        
+        }
+        
+        if (fields.containsKey(name))
+            return fields.get(name);
+        
+        if (Build.VERSION.SDK_INT >= 18)
+            Trace.beginSection("MaterialTextView#resolveField");
+        
+        Field field;
+        
+        try {
+        
+            field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+        
+        } catch (Exception ignored) {
+        
+            field = null;
+        
+        } finally {
+        
+            if (Build.VERSION.SDK_INT >= 18)
+                Trace.endSection();
+        
+        }
+        
+        fields.put(name, field);
+        return field;
+    
+    }
+    
+    static boolean set(Class<?> owner, Object target, String name, Object value) {
+    
+        Field field = getField(owner, name);
+        
+        if (field == null)
+            return false;
+        
+        try {
+        
+            field.set(target, value);
+            return true;
+        
+        } catch (Exception ignored) {}
+        
+        return false;
+    
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+package robertapengelly.support.widget;
+
+import  android.graphics.Typeface;
+import  android.os.Build;
+import  android.text.TextPaint;
+
+import  java.util.Locale;
+
+/**
+ * Process wide cache of the desired width of a label, the width TextView works out for the text on
+ * a single line before it builds the layout. Views showing the same text with the same paint get
+ * the width back instead of measuring the text for it again. The layout itself is still built by
+ * every view, this only spares the measuring pass in front of it.
+ */
+final class TextWidthCache {
+
+    private static final int MAX_ENTRIES = 256;
+    
+    private static final LruMap<Key, Integer> sCache = new LruMap<>(MAX_ENTRIES);
+    
+    private TextWidthCache() {}
+    
+    /** Returns the cached desired width, or -1 if the text hasn't been measured like this yet. */
+    static synchronized int get(Key key) {
+    
+        Integer width = sCache.get(key);
+        return ((width != null) ? width : -1);
+    
+    }
+    
+    static synchronized void put(Key key, int width) {
+        sCache.put(key, width);
+    }
+    
+    static final class Key {
+    
+        final float letterSpacing;
+        final float textScaleX;
+        final float textSize;
+        
+        final int flags;
+        
+        /** The all caps transformation of the view, which is shared per locale, or null. */
+        final Object allCaps;
+        
+        final Locale locale;
+        
+        final String text;
+        
+        final Typeface typeface;
+        
+        Key(String text, TextPaint paint, Object allCaps) {
+        
+            this.allCaps = allCaps;
+            this.flags = paint.getFlags();
+            this.letterSpacing = ((Build.VERSION.SDK_INT >= 21) ? paint.getLetterSpacing() : 0);
+            this.text = text;
+            this.textScaleX = paint.getTextScaleX();
+            this.textSize = paint.getTextSize();
+            this.typeface = paint.getTypeface();
+            
+            // the locale picks the glyphs of some scripts, paints only carry one since API 17
+            this.locale = ((Build.VERSION.SDK_INT >= 17) ? paint.getTextLocale() : Locale.getDefault());
+        
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+        
+            if (this == o)
+                return true;
+            
+            if (!(o instanceof Key))
+                return false;
+            
+            Key other = (Key) o;
+            
+            return ((allCaps == other.allCaps) && (flags == other.flags) && (letterSpacing == other.letterSpacing)
+                && locale.equals(other.locale) && text.equals(other.text) && (textScaleX == other.textScaleX)
+                && (textSize == other.textSize) && (typeface == other.typeface));
+        
+        }
+        
+        @Override
+        public int hashCode() {
+        
+            int result = text.hashCode();
+            
+            result = (31 * result + ((allCaps != null) ? allCaps.hashCode() : 0));
+            result = (31 * result + flags);
+            result = (31 * result + Float.floatToIntBits(letterSpacing));
+            result = (31 * result + locale.hashCode());
+            result = (31 * result + Float.floatToIntBits(textScaleX));
+            result = (31 * result + Float.floatToIntBits(textSize));
+            result = (31 * result + ((typeface != null) ? typeface.hashCode() : 0));
+            
+            return result;
+        
+        }
+    
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+package robertapengelly.support.widget;
+
+import  android.content.res.Configuration;
+import  android.content.res.Resources;
+import  android.content.res.Resources.Theme;
+
+import  java.util.WeakHashMap;
+
+/**
+ * Caches values resolved against a theme. Entries are dropped when the theme is garbage collected
+ * or when the resources configuration changes, and each theme keeps at most a fixed number of entries.
+ */
+final class ThemeCache<V> {
+
+    private final int mMaxSize;
+    
+    private final WeakHashMap<Theme, Entries<V>> mThemes = new WeakHashMap<>();
+    
+    ThemeCache(int maxSize) {
+        mMaxSize = maxSize;
+    }
+    
+    synchronized V get(Resources res, Theme theme, long key) {
+    
+        Entries<V> entries = getEntries(res, theme, false);
+        return ((entries != null) ? entries.values.get(key) : null);
+    
+    }
+    
+    private Entries<V> getEntries(Resources res, Theme theme, boolean create) {
+    
+        final Configuration configuration = res.getConfiguration();
+        
+        Entries<V> entries = mThemes.get(theme);
+        
+        if ((entries != null) && !entries.configuration.equals(configuration)) {
+        
+            entries.configuration = new Configuration(configuration);
+            entries.values.clear();
+        
+        }
+        
+        if ((entries == null) && create) {
+        
+            entries = new Entries<>(new Configuration(configuration), mMaxSize);
+            mThemes.put(theme, entries);
+        
+        }
+        
+        return entries;
+    
+    }
+    
+    synchronized void put(Resources res, Theme theme, long key, V value) {
+        getEntries(res, theme, true).values.put(key, value);
+    }
+    
+    private static final class Entries<V> {
+    
+        Configuration configuration;
+        
+        final LruMap<Long, V> values;
+        
+        Entries(Configuration configuration, int maxSize) {
+        
+            this.configuration = configuration;
+            this.values = new LruMap<>(maxSize);
+        
+        }
+    
+    }
+
+}
\ No newline at end of file